@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects the content type of a path without extension and of 4 KiB prefixes the signature table or the text check
+ * recognises, the cost every write without a configured mimetype pays.
+ *
+ * @author Zeger Hoogeboom
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentTypeDetectorBenchmark
+{
+	ContentTypeDetector detector;
+	byte[] png;
+	byte[] json;
+
+	@Setup
+	public void setUp()
+	{
+		detector = new ContentTypeDetector(false);
+		png = Arrays.copyOf(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, ContentTypeDetector.SNIFF_BYTES);
+		StringBuilder text = new StringBuilder("{\"items\": [");
+		while (text.length() < ContentTypeDetector.SNIFF_BYTES - 16) text.append("{\"name\": \"x\"}, ");
+		json = text.append("{}]}").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public String fromExtension()
+	{
+		return ContentTypeDetector.fromExtension("images/2015/photo.JPG");
+	}
+
+	@Benchmark
+	public String sniffSignature()
+	{
+		return detector.sniff(png, png.length);
+	}
+
+	@Benchmark
+	public String sniffText()
+	{
+		return detector.sniff(json, json.length);
+	}
+}
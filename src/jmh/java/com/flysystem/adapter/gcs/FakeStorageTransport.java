@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Answers every request the adapter makes with a canned response after a fixed latency, so a benchmark measures
+ * the adapter and the HTTP client rather than a fake. Every object has the same payload, listings have a fixed number of pages.
+ *
+ * @author Zeger Hoogeboom
+ */
+class FakeStorageTransport extends MockHttpTransport
+{
+	private final static String TOKEN = "{\"access_token\":\"token\",\"expires_in\":3600}";
+	private final static String UPDATED = "2015-01-01T00:00:00.000Z";
+
+	private final long latencyNanos;
+	private final byte[] payload;
+	private final String hash;
+	private final String object;
+	private final String[] pages;
+
+	/**
+	 * @param latency      the time every response takes, 0 answers immediately.
+	 * @param payloadSize  the size of the contents of every object.
+	 * @param pages        the number of pages of a listing.
+	 * @param itemsPerPage the number of objects in a page.
+	 */
+	FakeStorageTransport(long latency, TimeUnit unit, int payloadSize, int pages, int itemsPerPage)
+	{
+		this.latencyNanos = unit.toNanos(latency);
+		this.payload = Strings.repeat("{\"level\":\"info\"}\n", payloadSize / 17 + 1).substring(0, payloadSize).getBytes(StandardCharsets.UTF_8);
+		this.hash = "crc32c=" + BaseEncoding.base64().encode(Ints.toByteArray(Hashing.crc32c().hashBytes(payload).asInt()));
+		this.object = object("object");
+		this.pages = new String[pages];
+		for (int page = 0; page < pages; page++) {
+			StringBuilder json = new StringBuilder("{");
+			if (page + 1 < pages) json.append("\"nextPageToken\":\"").append(page + 1).append("\",");
+			json.append("\"items\":[");
+			for (int item = 0; item < itemsPerPage; item++) {
+				json.append(item == 0 ? "" : ",").append(object("dir/" + page + "/" + item));
+			}
+			this.pages[page] = json.append("]}").toString();
+		}
+	}
+
+	private String object(String name)
+	{
+		return "{\"name\":\"" + name + "\",\"size\":\"" + payload.length + "\",\"contentType\":\"text/plain\",\"updated\":\"" + UPDATED
+				+ "\",\"generation\":\"1\",\"metageneration\":\"1\"}";
+	}
+
+	@Override
+	public LowLevelHttpRequest buildRequest(final String method, final String url) throws IOException
+	{
+		return new MockLowLevelHttpRequest(url)
+		{
+			@Override
+			public LowLevelHttpResponse execute() throws IOException
+			{
+				if (latencyNanos > 0) LockSupport.parkNanos(latencyNanos);
+				return respond(url, this);
+			}
+		};
+	}
+
+	private LowLevelHttpResponse respond(String url, MockLowLevelHttpRequest request) throws IOException
+	{
+		MockLowLevelHttpResponse response = new MockLowLevelHttpResponse().setContentType("application/json");
+		if (url.contains("oauth2")) return response.setContent(TOKEN);
+		if (url.contains("/upload/")) {
+			// the upload is serialized as it would be onto the wire
+			if (request.getStreamingContent() != null) request.getStreamingContent().writeTo(ByteStreams.nullOutputStream());
+			if (url.contains("uploadType=resumable") && !url.contains("upload_id")) {
+				return response.addHeader("Location", url + "&upload_id=session");
+			}
+			return response.setContent(object);
+		}
+		if (url.contains("alt=media")) {
+			response.addHeader("Content-Length", String.valueOf(payload.length));
+			response.addHeader(Checksums.HASH_HEADER, hash);
+			return response.setContentType("text/plain").setContent(payload);
+		}
+		if (url.contains("/o?") || url.endsWith("/o")) {
+			String token = url.replaceAll(".*[?&]pageToken=(\\d+).*", "$1");
+			return response.setContent(pages[token.equals(url) ? 0 : Integer.parseInt(token)]);
+		}
+		return response.setContent(object);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.FileMetadata;
+import com.google.common.base.Strings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the adapter's hot paths against {@link FakeStorageTransport}. With the default latency of 0 this is
+ * the overhead of the adapter and the HTTP client per operation; run with the gc profiler to see the allocation rate.
+ *
+ * @author Zeger Hoogeboom
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GCSAdapterBenchmark
+{
+	@Param({"1024", "1048576"})
+	int payloadSize;
+
+	@Param({"0"})
+	long latencyMicros;
+
+	@Param({"10"})
+	int listPages;
+
+	@Param({"1000"})
+	int itemsPerPage;
+
+	GCSAdapter adapter;
+	String contents;
+
+	@Setup
+	public void setUp()
+	{
+		adapter = new GCSAdapter.Builder()
+				.setBucket("benchmark")
+				.setServiceAccountEmail("benchmark@developer.gserviceaccount.com")
+				.setP12Key(new File(System.getProperty("user.dir") + "/src/test/files/key.p12"))
+				.setApplicationName("benchmark")
+				.setHttpTransport(new FakeStorageTransport(latencyMicros, TimeUnit.MICROSECONDS, payloadSize, listPages, itemsPerPage))
+				.build();
+		contents = Strings.repeat("{\"level\":\"info\"}\n", payloadSize / 17 + 1).substring(0, payloadSize);
+	}
+
+	@Benchmark
+	public String read()
+	{
+		return adapter.read("object");
+	}
+
+	@Benchmark
+	public boolean write()
+	{
+		return adapter.write("object", contents);
+	}
+
+	@Benchmark
+	public boolean has()
+	{
+		return adapter.has("object");
+	}
+
+	@Benchmark
+	public FileMetadata getMetadata()
+	{
+		return adapter.getMetadata("object");
+	}
+
+	@Benchmark
+	public List<FileMetadata> listContents()
+	{
+		return adapter.listContents("dir", true);
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.FileMetadata;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.storage.model.ObjectAccessControl;
+import com.google.api.services.storage.model.StorageObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts listing pages of StorageObjects, a tenth of them directory placeholders and a tenth of them with an acl.
+ *
+ * @author Zeger Hoogeboom
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageObjectConverterBenchmark
+{
+	@Param({"1000", "100000"})
+	int items;
+
+	List<StorageObject> objects;
+
+	@Setup
+	public void setUp()
+	{
+		objects = new ArrayList<>(items);
+		DateTime updated = new DateTime(System.currentTimeMillis());
+		for (int i = 0; i < items; i++) {
+			StorageObject object = new StorageObject()
+					.setName(i % 10 == 0 ? "dir/" + i + "/" : "dir/" + i)
+					.setSize(BigInteger.valueOf(i))
+					.setContentType("text/plain")
+					.setUpdated(updated);
+			if (i % 10 == 1) object.setAcl(Collections.singletonList(new ObjectAccessControl().setEntity("allUsers")));
+			objects.add(object);
+		}
+	}
+
+	@Benchmark
+	public List<FileMetadata> doConvert()
+	{
+		return StorageObjectConverter.doConvert(objects);
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.exception.FlysystemGenericException;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The outcome of a batch operation, per path either a result or the error it failed with.
+ * Missing objects are reported as {@link com.flysystem.core.exception.FileNotFoundException}.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class BatchResult<T>
+{
+	private final Map<String, T> results = new ConcurrentHashMap<>();
+	private final Map<String, FlysystemGenericException> errors = new ConcurrentHashMap<>();
+
+	void success(String path, T result)
+	{
+		results.put(path, result);
+	}
+
+	void failure(String path, FlysystemGenericException error)
+	{
+		errors.put(path, error);
+	}
+
+	public Map<String, T> getResults()
+	{
+		return Collections.unmodifiableMap(results);
+	}
+
+	public Map<String, FlysystemGenericException> getErrors()
+	{
+		return Collections.unmodifiableMap(errors);
+	}
+
+	public boolean isSuccessful()
+	{
+		return errors.isEmpty();
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.exception.FileNotFoundException;
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.services.json.AbstractGoogleJsonClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.BackOffUtils;
+import com.google.api.client.util.Sleeper;
+import com.google.api.services.storage.Storage;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Packs one request per path into JSON batch requests of at most {@link #MAX_BATCH_SIZE} and sends those concurrently.
+ * Requests that fail with a retryable status are sent again in a later batch, after a back off of the
+ * {@link RetryPolicy}. A batch that fails as a whole is reported as a failure of each of its paths.
+ *
+ * @author Zeger Hoogeboom
+ */
+class BatchRunner
+{
+	final static int MAX_BATCH_SIZE = 100;
+
+	interface Operation<T, R>
+	{
+		AbstractGoogleJsonClientRequest<T> request(String path) throws IOException;
+
+		/**
+		 * @return the result for the path, never null.
+		 */
+		R onSuccess(String path, T response);
+
+		/**
+		 * A chance to turn an error into a result, e.g. a missing object into false.
+		 * @return the result for the path, or null to report the error.
+		 */
+		R onFailure(String path, GoogleJsonError error);
+	}
+
+	private final Storage client;
+	private final ListeningExecutorService executor;
+	private final int parallelism;
+	private final RetryPolicy retryPolicy;
+
+	BatchRunner(Storage client, ListeningExecutorService executor, int parallelism, RetryPolicy retryPolicy)
+	{
+		this.client = client;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.retryPolicy = retryPolicy;
+	}
+
+	<T, R> BatchResult<R> execute(Collection<String> paths, final Operation<T, R> operation)
+	{
+		final BatchResult<R> result = new BatchResult<>();
+		List<Callable<Void>> batches = new ArrayList<>();
+		for (final List<String> group : Iterables.partition(new LinkedHashSet<>(paths), MAX_BATCH_SIZE)) {
+			batches.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					execute(group, operation, result);
+					return null;
+				}
+			});
+		}
+		try {
+			ParallelTasks.invokeAll(executor, batches, parallelism);
+		} catch (IOException e) {
+			throw new FlysystemGenericException(e);
+		}
+		return result;
+	}
+
+	private <T, R> void execute(List<String> group, Operation<T, R> operation, BatchResult<R> result)
+	{
+		BackOff backOff = retryPolicy.newBackOff();
+		for (int attempt = 1; ; attempt++) {
+			Map<String, GoogleJsonError> retryable;
+			try {
+				retryable = send(group, operation, result);
+			} catch (IOException e) {
+				for (String path : group) result.failure(path, new FlysystemGenericException(e));
+				return;
+			}
+			if (retryable.isEmpty()) return;
+			if (attempt == retryPolicy.getMaxAttempts() || !backOff(backOff)) {
+				for (Map.Entry<String, GoogleJsonError> failure : retryable.entrySet()) fail(failure.getKey(), failure.getValue(), result);
+				return;
+			}
+			group = new ArrayList<>(retryable.keySet());
+		}
+	}
+
+	/**
+	 * @return the errors of the requests that are worth sending again, the other results are reported.
+	 */
+	private <T, R> Map<String, GoogleJsonError> send(List<String> group, final Operation<T, R> operation, final BatchResult<R> result) throws IOException
+	{
+		final Map<String, GoogleJsonError> retryable = new LinkedHashMap<>();
+		// client.batch() leaves the batch request itself uninitialized, which would skip the timeouts, metrics and interceptors.
+		// The batch would also resend the idempotent requests on its own, they are retried here instead, like the others.
+		final HttpRequestInitializer initializer = client.getRequestFactory().getInitializer();
+		BatchRequest batch = client.batch(new HttpRequestInitializer()
+		{
+			public void initialize(HttpRequest request) throws IOException
+			{
+				if (initializer != null) initializer.initialize(request);
+				request.setNumberOfRetries(0);
+			}
+		});
+		for (final String path : group) {
+			operation.request(path).queue(batch, new JsonBatchCallback<T>()
+			{
+				@Override
+				public void onSuccess(T response, HttpHeaders responseHeaders)
+				{
+					result.success(path, operation.onSuccess(path, response));
+				}
+
+				@Override
+				public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders)
+				{
+					R value = operation.onFailure(path, error);
+					if (value != null) {
+						result.success(path, value);
+					} else if (RetryPolicy.isRetryable(error.getCode())) {
+						retryable.put(path, error);
+					} else {
+						fail(path, error, result);
+					}
+				}
+			});
+		}
+		batch.execute();
+		return retryable;
+	}
+
+	private static <R> void fail(String path, GoogleJsonError error, BatchResult<R> result)
+	{
+		if (error.getCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+			result.failure(path, new FileNotFoundException(path));
+		} else {
+			result.failure(path, new FlysystemGenericException(error.getCode() + " " + error.getMessage()));
+		}
+	}
+
+	/**
+	 * @return false when the back off gave up or was interrupted, the interrupt is kept for the caller.
+	 */
+	private static boolean backOff(BackOff backOff)
+	{
+		try {
+			return BackOffUtils.next(Sleeper.DEFAULT, backOff);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.metrics.MetricsRecorder;
+import com.google.api.client.http.HttpHeaders;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes the CRC32C and MD5 checksums GCS keeps for every object, while the bytes are streamed and without buffering them,
+ * and keeps count of how much hashing costs. Composite objects only have a CRC32C, so that is preferred for verification.
+ *
+ * @author Zeger Hoogeboom
+ */
+class Checksums
+{
+	final static String CRC32C = "crc32c";
+	final static String MD5 = "md5";
+	final static String HASH_HEADER = "x-goog-hash";
+
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong nanos = new AtomicLong();
+	private final AtomicLong mismatches = new AtomicLong();
+	private final MetricsRecorder metrics;
+
+	Checksums()
+	{
+		this(MetricsRecorder.NOOP);
+	}
+
+	Checksums(MetricsRecorder metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the CRC32C of {@code contents} encoded like the crc32c property of a StorageObject.
+	 */
+	String crc32c(byte[] contents)
+	{
+		long start = System.nanoTime();
+		HashCode hash = Hashing.crc32c().hashBytes(contents);
+		record(contents.length, System.nanoTime() - start);
+		return encode(CRC32C, hash);
+	}
+
+	/**
+	 * @return a stream which hashes everything read through it, see {@link ChecksumInputStream#checksum()}.
+	 */
+	ChecksumInputStream hashing(InputStream in)
+	{
+		return new ChecksumInputStream(in, CRC32C, null, null);
+	}
+
+	/**
+	 * @return a stream which fails at its end when its contents do not match the checksum in the x-goog-hash response header,
+	 * or {@code in} itself when there is no such header.
+	 */
+	InputStream verifying(InputStream in, HttpHeaders headers, String path)
+	{
+		String crc32c = null;
+		String md5 = null;
+		List<String> values = headers.getHeaderStringValues(HASH_HEADER);
+		for (String value : values) {
+			for (String pair : value.split(",")) {
+				String[] hash = pair.trim().split("=", 2);
+				if (hash.length != 2) continue;
+				if (hash[0].equals(CRC32C)) crc32c = hash[1];
+				else if (hash[0].equals(MD5)) md5 = hash[1];
+			}
+		}
+		if (crc32c != null) return new ChecksumInputStream(in, CRC32C, crc32c, path);
+		if (md5 != null) return new ChecksumInputStream(in, MD5, md5, path);
+		return in;
+	}
+
+	void mismatch()
+	{
+		mismatches.incrementAndGet();
+		metrics.checksumMismatch();
+	}
+
+	long getBytes()
+	{
+		return bytes.get();
+	}
+
+	long getNanos()
+	{
+		return nanos.get();
+	}
+
+	long getMismatches()
+	{
+		return mismatches.get();
+	}
+
+	private void record(long count, long elapsed)
+	{
+		bytes.addAndGet(count);
+		nanos.addAndGet(elapsed);
+		metrics.checksummed(count, elapsed);
+	}
+
+	private static HashFunction function(String algorithm)
+	{
+		return algorithm.equals(CRC32C) ? Hashing.crc32c() : Hashing.md5();
+	}
+
+	/**
+	 * GCS encodes a CRC32C in big-endian byte order, Guava's HashCode bytes are little-endian.
+	 */
+	private static String encode(String algorithm, HashCode hash)
+	{
+		byte[] bytes = algorithm.equals(CRC32C) ? Ints.toByteArray(hash.asInt()) : hash.asBytes();
+		return BaseEncoding.base64().encode(bytes);
+	}
+
+	class ChecksumInputStream extends FilterInputStream
+	{
+		private final Hasher hasher;
+		private final String algorithm;
+		private final String expected;
+		private final String path;
+		private String checksum;
+
+		private ChecksumInputStream(InputStream in, String algorithm, String expected, String path)
+		{
+			super(in);
+			this.hasher = function(algorithm).newHasher();
+			this.algorithm = algorithm;
+			this.expected = expected;
+			this.path = path;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = in.read(b, off, len);
+			if (read > 0) {
+				long start = System.nanoTime();
+				hasher.putBytes(b, off, read);
+				record(read, System.nanoTime() - start);
+			} else if (read == -1) {
+				verify();
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			// skipped bytes still have to be hashed
+			byte[] buffer = new byte[(int) Math.min(n, GCSAdapter.BUFFER_SIZE)];
+			int read = read(buffer, 0, buffer.length);
+			return Math.max(read, 0);
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public void mark(int readlimit)
+		{
+		}
+
+		@Override
+		public void reset() throws IOException
+		{
+			throw new IOException("mark/reset not supported");
+		}
+
+		/**
+		 * Ends the hashing, so only call this once the stream has been read to its end.
+		 * @return the checksum of the contents, encoded like the checksum properties of a StorageObject.
+		 */
+		String checksum()
+		{
+			if (checksum == null) checksum = encode(algorithm, hasher.hash());
+			return checksum;
+		}
+
+		private void verify() throws IOException
+		{
+			if (expected == null || checksum != null) return;
+			String actual = checksum();
+			if (!actual.equals(expected)) {
+				mismatch();
+				throw new IOException(String.format("The %s of %s is %s but %s was received.", algorithm, path, expected, actual));
+			}
+		}
+	}
+}
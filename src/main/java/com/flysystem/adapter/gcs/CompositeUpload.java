@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.InputStreamContent;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.model.ComposeRequest;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Uploads a single large object as parts in parallel and stitches them together with objects.compose.
+ * As one compose call takes at most 32 components, more parts are composed in a tree of intermediate objects.
+ * All temporary objects live under {@link #TEMPORARY_PREFIX} and are deleted whether the upload succeeds or not.
+ *
+ * @author Zeger Hoogeboom
+ */
+class CompositeUpload
+{
+	private final static Logger logger = Logger.getLogger(CompositeUpload.class.getName());
+	final static int MAX_COMPONENTS = 32;
+	final static String TEMPORARY_PREFIX = ".composite/";
+
+	interface PartUploader
+	{
+		StorageObject upload(String name, AbstractInputStreamContent content) throws IOException;
+	}
+
+	private final Storage client;
+	private final String bucketName;
+	private final ListeningExecutorService executor;
+	private final int parallelism;
+	private final PartUploader uploader;
+
+	private final String id = UUID.randomUUID().toString();
+	private final AtomicInteger names = new AtomicInteger();
+	private final Queue<String> temporary = new ConcurrentLinkedQueue<>();
+
+	CompositeUpload(Storage client, String bucketName, ListeningExecutorService executor, int parallelism, PartUploader uploader)
+	{
+		this.client = client;
+		this.bucketName = bucketName;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.uploader = uploader;
+	}
+
+	/**
+	 * Every part reads its own slice of the file through a separate channel.
+	 * {@link ParallelTasks#invokeAll} only fails once all parts have stopped, so none is created after the clean up.
+	 */
+	StorageObject upload(final Path source, long partSize, StorageObject destination, String predefinedAcl, Long ifGenerationMatch) throws IOException
+	{
+		long size = Files.size(source);
+		List<Callable<StorageObject>> parts = new ArrayList<>();
+		for (long offset = 0; offset < size || offset == 0; offset += partSize) {
+			final long first = offset;
+			final long length = Math.min(partSize, size - offset);
+			parts.add(new Callable<StorageObject>()
+			{
+				public StorageObject call() throws IOException
+				{
+					try (FileChannel channel = FileChannel.open(source)) {
+						channel.position(first);
+						InputStreamContent content = new InputStreamContent(GCSAdapter.DEFAULT_MIMETYPE, ByteStreams.limit(Channels.newInputStream(channel), length));
+						return uploadPart(content.setLength(length));
+					}
+				}
+			});
+		}
+		try {
+			return compose(ParallelTasks.invokeAll(executor, parts, parallelism), destination, predefinedAcl, ifGenerationMatch);
+		} finally {
+			cleanUp();
+		}
+	}
+
+	/**
+	 * Parts are read from the stream one after the other, with at most {@code parallelism} of them buffered or in flight.
+	 */
+	StorageObject upload(InputStream source, int partSize, StorageObject destination, String predefinedAcl, Long ifGenerationMatch) throws IOException
+	{
+		final Semaphore permits = new Semaphore(parallelism);
+		final AtomicBoolean failed = new AtomicBoolean();
+		List<ListenableFuture<StorageObject>> parts = new ArrayList<>();
+		try {
+			int read;
+			do {
+				permits.acquire();
+				if (failed.get()) break;
+				final byte[] buffer = new byte[partSize];
+				read = ByteStreams.read(source, buffer, 0, partSize);
+				if (read == 0 && !parts.isEmpty()) {
+					permits.release();
+					break;
+				}
+				final int length = read;
+				parts.add(executor.submit(new Callable<StorageObject>()
+				{
+					public StorageObject call() throws IOException
+					{
+						try {
+							return uploadPart(new ByteArrayContent(GCSAdapter.DEFAULT_MIMETYPE, buffer, 0, length));
+						} catch (IOException | RuntimeException e) {
+							failed.set(true);
+							throw e;
+						} finally {
+							permits.release();
+						}
+					}
+				}));
+			} while (read == partSize);
+			return compose(Futures.allAsList(parts).get(), destination, predefinedAcl, ifGenerationMatch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FlysystemGenericException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new FlysystemGenericException(e.getCause());
+		} finally {
+			// parts still uploading would otherwise be created after their names were cleaned up
+			for (ListenableFuture<StorageObject> part : parts) {
+				try {
+					Uninterruptibles.getUninterruptibly(part);
+				} catch (ExecutionException ignored) {
+					// already reported above
+				}
+			}
+			cleanUp();
+		}
+	}
+
+	private StorageObject uploadPart(AbstractInputStreamContent content) throws IOException
+	{
+		return uploader.upload(temporaryName(), content);
+	}
+
+	private StorageObject compose(List<StorageObject> components, StorageObject destination, String predefinedAcl, Long ifGenerationMatch) throws IOException
+	{
+		while (components.size() > MAX_COMPONENTS) {
+			List<Callable<StorageObject>> level = new ArrayList<>();
+			for (int i = 0; i < components.size(); i += MAX_COMPONENTS) {
+				final List<StorageObject> group = components.subList(i, Math.min(i + MAX_COMPONENTS, components.size()));
+				level.add(new Callable<StorageObject>()
+				{
+					public StorageObject call() throws IOException
+					{
+						return composeInto(temporaryName(), group, new StorageObject(), null, 0L);
+					}
+				});
+			}
+			components = ParallelTasks.invokeAll(executor, level, parallelism);
+		}
+		return composeInto(destination.getName(), components, destination, predefinedAcl, ifGenerationMatch);
+	}
+
+	/**
+	 * The sources are pinned to the generations that were uploaded.
+	 * @param ifGenerationMatch a precondition on the destination, which makes the compose safe to retry, or null for none.
+	 */
+	private StorageObject composeInto(String name, List<StorageObject> sources, StorageObject destination, String predefinedAcl, Long ifGenerationMatch) throws IOException
+	{
+		List<ComposeRequest.SourceObjects> sourceObjects = new ArrayList<>();
+		for (StorageObject source : sources) {
+			sourceObjects.add(new ComposeRequest.SourceObjects().setName(source.getName()).setGeneration(source.getGeneration()));
+		}
+		ComposeRequest request = new ComposeRequest()
+				.setSourceObjects(sourceObjects)
+				.setDestination(destination.setBucket(bucketName).setName(name));
+		Storage.Objects.Compose compose = client.objects().compose(bucketName, name, request);
+		if (predefinedAcl != null) compose.setDestinationPredefinedAcl(predefinedAcl);
+		if (ifGenerationMatch != null) compose.setIfGenerationMatch(ifGenerationMatch);
+		return compose.execute();
+	}
+
+	/**
+	 * Names are registered before the object is created, so a part that failed halfway is cleaned up as well.
+	 */
+	private String temporaryName()
+	{
+		String name = TEMPORARY_PREFIX + id + "/" + names.getAndIncrement();
+		temporary.add(name);
+		return name;
+	}
+
+	private void cleanUp()
+	{
+		List<Callable<Void>> deletes = new ArrayList<>();
+		for (final String name : temporary) {
+			deletes.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					try {
+						client.objects().delete(bucketName, name).execute();
+					} catch (HttpResponseException e) {
+						if (e.getStatusCode() != HttpStatusCodes.STATUS_CODE_NOT_FOUND) logger.warning("Could not delete temporary object " + name + ": " + e.getMessage());
+					} catch (IOException e) {
+						logger.warning("Could not delete temporary object " + name + ": " + e.getMessage());
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			ParallelTasks.invokeAll(executor, deletes, parallelism);
+		} catch (IOException e) {
+			logger.warning("Could not delete temporary objects: " + e.getMessage());
+		}
+		temporary.clear();
+	}
+}
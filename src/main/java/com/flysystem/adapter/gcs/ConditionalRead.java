@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+/**
+ * The outcome of {@link GCSAdapter#readIfChanged(String, long)}: either the object was not modified and no contents
+ * were transferred, or its current contents along with the generation and etag to revalidate them with next time.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class ConditionalRead
+{
+	private final boolean modified;
+	private final String contents;
+	private final Long generation;
+	private final String etag;
+
+	private ConditionalRead(boolean modified, String contents, Long generation, String etag)
+	{
+		this.modified = modified;
+		this.contents = contents;
+		this.generation = generation;
+		this.etag = etag;
+	}
+
+	static ConditionalRead notModified()
+	{
+		return new ConditionalRead(false, null, null, null);
+	}
+
+	static ConditionalRead modified(String contents, Long generation, String etag)
+	{
+		return new ConditionalRead(true, contents, generation, etag);
+	}
+
+	public boolean isModified()
+	{
+		return modified;
+	}
+
+	/**
+	 * @return the contents, or null when not modified.
+	 */
+	public String getContents()
+	{
+		return contents;
+	}
+
+	/**
+	 * @return the generation of the contents, or null when not modified.
+	 */
+	public Long getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * @return the etag of the contents, or null when not modified.
+	 */
+	public String getEtag()
+	{
+		return etag;
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import net.sf.jmimemagic.Magic;
+import net.sf.jmimemagic.MagicException;
+import net.sf.jmimemagic.MagicMatch;
+import net.sf.jmimemagic.MagicMatchNotFoundException;
+import net.sf.jmimemagic.MagicParseException;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Decides the content type of a write from its path and its first bytes, in order of cost:
+ * <ol>
+ * <li>a table of common file extensions;</li>
+ * <li>the signatures of common binary formats and a check whether the bytes are text, which tells JSON, XML and HTML apart;</li>
+ * <li>jmimemagic, for binary contents nothing else recognized. It takes milliseconds per call and close to a second
+ * to parse its rules, so the rules are parsed once per JVM, in the background, and the results are cached by the
+ * hash of the bytes that were sniffed.</li>
+ * </ol>
+ * Only the first {@link #SNIFF_BYTES} are looked at, streams are peeked without consuming them.
+ *
+ * @author Zeger Hoogeboom
+ */
+class ContentTypeDetector
+{
+	private final static Logger logger = Logger.getLogger(ContentTypeDetector.class.getName());
+	final static int SNIFF_BYTES = 4 * 1024;
+	final static String TEXT = "text/plain";
+	private final static String UNKNOWN = "";
+
+	private final static Map<String, String> EXTENSIONS = ImmutableMap.<String, String>builder()
+			.put("txt", "text/plain").put("log", "text/plain").put("md", "text/markdown").put("csv", "text/csv")
+			.put("tsv", "text/tab-separated-values").put("html", "text/html").put("htm", "text/html").put("css", "text/css")
+			.put("js", "application/javascript").put("mjs", "application/javascript").put("json", "application/json")
+			.put("map", "application/json").put("xml", "application/xml").put("yaml", "application/x-yaml")
+			.put("yml", "application/x-yaml").put("ics", "text/calendar").put("vtt", "text/vtt")
+			.put("png", "image/png").put("jpg", "image/jpeg").put("jpeg", "image/jpeg").put("gif", "image/gif")
+			.put("webp", "image/webp").put("svg", "image/svg+xml").put("ico", "image/x-icon").put("bmp", "image/bmp")
+			.put("tif", "image/tiff").put("tiff", "image/tiff").put("avif", "image/avif")
+			.put("mp3", "audio/mpeg").put("ogg", "audio/ogg").put("wav", "audio/wav").put("flac", "audio/flac")
+			.put("m4a", "audio/mp4").put("mp4", "video/mp4").put("m4v", "video/mp4").put("webm", "video/webm")
+			.put("mov", "video/quicktime").put("avi", "video/x-msvideo").put("m3u8", "application/vnd.apple.mpegurl")
+			.put("ts", "video/mp2t").put("pdf", "application/pdf").put("zip", "application/zip")
+			.put("gz", "application/gzip").put("tgz", "application/gzip").put("tar", "application/x-tar")
+			.put("bz2", "application/x-bzip2").put("7z", "application/x-7z-compressed").put("jar", "application/java-archive")
+			.put("wasm", "application/wasm").put("woff", "font/woff").put("woff2", "font/woff2").put("ttf", "font/ttf")
+			.put("otf", "font/otf").put("eot", "application/vnd.ms-fontobject")
+			.put("doc", "application/msword").put("xls", "application/vnd.ms-excel").put("ppt", "application/vnd.ms-powerpoint")
+			.put("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document")
+			.put("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
+			.put("pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation")
+			.put("odt", "application/vnd.oasis.opendocument.text").put("rtf", "application/rtf")
+			.put("avro", "application/avro").put("parquet", "application/vnd.apache.parquet")
+			.put("bin", "application/octet-stream")
+			.build();
+
+	private static class Signature
+	{
+		final int offset;
+		final byte[] bytes;
+		final String contentType;
+
+		Signature(int offset, String bytes, String contentType)
+		{
+			this.offset = offset;
+			this.bytes = bytes.getBytes(StandardCharsets.ISO_8859_1);
+			this.contentType = contentType;
+		}
+
+		boolean matches(byte[] prefix, int length)
+		{
+			if (offset + bytes.length > length) return false;
+			for (int i = 0; i < bytes.length; i++) {
+				if (prefix[offset + i] != bytes[i]) return false;
+			}
+			return true;
+		}
+	}
+
+	private final static Signature[] SIGNATURES = {
+			new Signature(0, "\u0089PNG\r\n\u001a\n", "image/png"),
+			new Signature(0, "\u00ff\u00d8\u00ff", "image/jpeg"),
+			new Signature(0, "GIF87a", "image/gif"),
+			new Signature(0, "GIF89a", "image/gif"),
+			new Signature(8, "WEBP", "image/webp"),
+			new Signature(0, "%PDF-", "application/pdf"),
+			new Signature(0, "PK\u0003\u0004", "application/zip"),
+			new Signature(0, "\u001f\u008b", "application/gzip"),
+			new Signature(0, "BZh", "application/x-bzip2"),
+			new Signature(0, "7z\u00bc\u00af'\u001c", "application/x-7z-compressed"),
+			new Signature(257, "ustar", "application/x-tar"),
+			new Signature(4, "ftyp", "video/mp4"),
+			new Signature(0, "\u001aE\u00df\u00a3", "video/webm"),
+			new Signature(0, "ID3", "audio/mpeg"),
+			new Signature(0, "OggS", "audio/ogg"),
+			new Signature(0, "fLaC", "audio/flac"),
+			new Signature(0, "wOFF", "font/woff"),
+			new Signature(0, "wOF2", "font/woff2"),
+			new Signature(0, "\u0000asm", "application/wasm"),
+			new Signature(0, "Obj\u0001", "application/avro"),
+			new Signature(0, "PAR1", "application/vnd.apache.parquet"),
+	};
+
+	// shared by all adapters, the rules are only parsed once per JVM anyway
+	private final static Cache<HashCode, String> sniffed = CacheBuilder.newBuilder().maximumSize(1024).build();
+
+	private final boolean magic;
+
+	/**
+	 * @param magic whether binary contents that are not recognized otherwise are matched with jmimemagic.
+	 */
+	ContentTypeDetector(boolean magic)
+	{
+		this.magic = magic;
+	}
+
+	/**
+	 * Parses the jmimemagic rules, so the first write that needs them does not wait for that.
+	 */
+	void warmUp()
+	{
+		if (!magic) return;
+		try {
+			Magic.initialize();
+		} catch (MagicParseException e) {
+			logger.warning("Could not parse the jmimemagic rules, content types are not sniffed with them: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the content type of the extension of the path, or null when it has none or an unknown one.
+	 */
+	static String fromExtension(String path)
+	{
+		int dot = path.lastIndexOf('.');
+		if (dot < 0 || dot < path.lastIndexOf('/') || dot == path.length() - 1) return null;
+		String extension = path.substring(dot + 1);
+		String contentType = EXTENSIONS.get(extension);
+		return contentType != null ? contentType : EXTENSIONS.get(extension.toLowerCase());
+	}
+
+	/**
+	 * @param prefix the first bytes of the contents, only the first {@link #SNIFF_BYTES} of them are looked at.
+	 * @return the content type, or null when it is not recognized.
+	 */
+	String sniff(byte[] prefix, int length)
+	{
+		length = Math.min(length, SNIFF_BYTES);
+		if (length == 0) return null;
+		for (Signature signature : SIGNATURES) {
+			if (signature.matches(prefix, length)) return signature.contentType;
+		}
+		if (isText(prefix, length)) return text(prefix, length);
+		return magic ? magic(prefix, length) : null;
+	}
+
+	/**
+	 * Peeks at the first bytes of the stream, they are pushed back so the stream still starts at the same byte.
+	 * @param in a stream with a push back buffer of at least {@link #SNIFF_BYTES}.
+	 */
+	String sniff(PushbackInputStream in) throws IOException
+	{
+		byte[] prefix = new byte[SNIFF_BYTES];
+		int length = 0;
+		int read;
+		while (length < prefix.length && (read = in.read(prefix, length, prefix.length - length)) != -1) length += read;
+		in.unread(prefix, 0, length);
+		return sniff(prefix, length);
+	}
+
+	/**
+	 * Reads the first bytes of the file with positional reads.
+	 */
+	String sniff(Path file) throws IOException
+	{
+		ByteBuffer prefix = ByteBuffer.allocate(SNIFF_BYTES);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (prefix.hasRemaining() && channel.read(prefix, prefix.position()) > 0) {
+				// until the prefix is full or the file ends
+			}
+		}
+		return sniff(prefix.array(), prefix.position());
+	}
+
+	/**
+	 * Text is valid UTF-8 without control characters other than whitespace; a multi-byte character cut off at the end
+	 * of the prefix still counts as text.
+	 */
+	private static boolean isText(byte[] prefix, int length)
+	{
+		int i = 0;
+		while (i < length) {
+			int b = prefix[i] & 0xff;
+			if (b < 0x80) {
+				if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1b) return false;
+				if (b == 0x7f) return false;
+				i++;
+				continue;
+			}
+			int continuation = b >= 0xf0 && b <= 0xf4 ? 3 : b >= 0xe0 ? 2 : b >= 0xc2 && b < 0xe0 ? 1 : -1;
+			if (continuation < 0) return false;
+			for (int j = 1; j <= continuation; j++) {
+				if (i + j >= length) return true;
+				if ((prefix[i + j] & 0xc0) != 0x80) return false;
+			}
+			i += continuation + 1;
+		}
+		return true;
+	}
+
+	private static String text(byte[] prefix, int length)
+	{
+		int i = 0;
+		// a UTF-8 byte order mark
+		if (length >= 3 && (prefix[0] & 0xff) == 0xef && (prefix[1] & 0xff) == 0xbb && (prefix[2] & 0xff) == 0xbf) i = 3;
+		while (i < length && Character.isWhitespace(prefix[i])) i++;
+		if (i == length) return TEXT;
+		if (prefix[i] == '{') return "application/json";
+		if (prefix[i] == '[' && i + 1 < length && (Character.isWhitespace(prefix[i + 1]) || "{[\"]-0123456789".indexOf(prefix[i + 1]) >= 0)) {
+			return "application/json";
+		}
+		if (prefix[i] == '<') {
+			String start = new String(prefix, i, Math.min(length - i, 64), StandardCharsets.UTF_8).toLowerCase();
+			if (start.startsWith("<?xml")) return start.contains("<svg") ? "image/svg+xml" : "application/xml";
+			if (start.startsWith("<!doctype html") || start.startsWith("<html") || start.startsWith("<head") || start.startsWith("<body")) return "text/html";
+			if (start.startsWith("<svg")) return "image/svg+xml";
+		}
+		return TEXT;
+	}
+
+	private static String magic(byte[] prefix, int length)
+	{
+		final byte[] sniffable = length == prefix.length ? prefix : Arrays.copyOf(prefix, length);
+		HashCode key = Hashing.murmur3_128().hashBytes(sniffable);
+		String contentType = sniffed.getIfPresent(key);
+		if (contentType == null) {
+			contentType = match(sniffable);
+			sniffed.put(key, contentType);
+		}
+		return contentType.equals(UNKNOWN) ? null : contentType;
+	}
+
+	private static String match(byte[] sniffable)
+	{
+		try {
+			MagicMatch match;
+			// jmimemagic keeps no state per call, but its rules are not documented to be safe to share between threads
+			synchronized (Magic.class) {
+				match = Magic.getMagicMatch(sniffable, true);
+			}
+			String contentType = match.getMimeType();
+			// only binary contents get here, which jmimemagic falls back to calling text
+			return contentType == null || contentType.equals("???") || contentType.equals(TEXT) ? UNKNOWN : contentType;
+		} catch (MagicMatchNotFoundException e) {
+			return UNKNOWN;
+		} catch (MagicParseException | MagicException e) {
+			logger.fine("Could not sniff the content type: " + e.getMessage());
+			return UNKNOWN;
+		}
+	}
+}
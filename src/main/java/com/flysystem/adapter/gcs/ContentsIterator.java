@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.FileMetadata;
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.api.services.storage.model.Objects;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Lazily walks a (possibly huge) listing page by page.
+ * While the caller consumes page N, page N+1 is already being fetched on the executor,
+ * so at most two pages are held in memory at any time.
+ *
+ * @author Zeger Hoogeboom
+ */
+class ContentsIterator extends AbstractIterator<FileMetadata>
+{
+	private final ObjectLister lister;
+	private final ListeningExecutorService executor;
+	private final String prefix;
+	private final boolean recursive;
+	private final StorageObjectConverter converter = new StorageObjectConverter();
+
+	private Iterator<FileMetadata> page = Collections.emptyIterator();
+	private Future<Objects> nextPage;
+
+	ContentsIterator(ObjectLister lister, ListeningExecutorService executor, String prefix, boolean recursive)
+	{
+		this.lister = lister;
+		this.executor = executor;
+		this.prefix = prefix;
+		this.recursive = recursive;
+		this.nextPage = fetch(null);
+	}
+
+	@Override
+	protected FileMetadata computeNext()
+	{
+		while (!page.hasNext()) {
+			if (nextPage == null) return endOfData();
+			Objects objects = await(nextPage);
+			nextPage = objects.getNextPageToken() == null ? null : fetch(objects.getNextPageToken());
+			page = convert(objects);
+		}
+		return page.next();
+	}
+
+	private Future<Objects> fetch(final String pageToken)
+	{
+		return executor.submit(new Callable<Objects>()
+		{
+			public Objects call() throws IOException
+			{
+				return lister.list(prefix, recursive, pageToken);
+			}
+		});
+	}
+
+	private Iterator<FileMetadata> convert(Objects objects)
+	{
+		Iterator<FileMetadata> directories = Collections.emptyIterator();
+		if (objects.getPrefixes() != null) {
+			directories = Iterators.transform(objects.getPrefixes().iterator(), new Function<String, FileMetadata>()
+			{
+				public FileMetadata apply(String directory)
+				{
+					return converter.fromPrefix(directory);
+				}
+			});
+		}
+		if (objects.getItems() == null) return directories;
+		return Iterators.concat(directories, converter.convertAll(withoutPlaceholder(objects.getItems())).iterator());
+	}
+
+	/**
+	 * A listing of "foo/" also returns the "foo/" placeholder object itself, which is not part of its contents.
+	 */
+	private Iterable<StorageObject> withoutPlaceholder(List<StorageObject> items)
+	{
+		if (prefix.isEmpty()) return items;
+		return Iterables.filter(items, new Predicate<StorageObject>()
+		{
+			public boolean apply(StorageObject item)
+			{
+				return !prefix.equals(item.getName());
+			}
+		});
+	}
+
+	private static Objects await(Future<Objects> future)
+	{
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FlysystemGenericException(e);
+		} catch (ExecutionException e) {
+			throw new FlysystemGenericException(e.getCause());
+		}
+	}
+}
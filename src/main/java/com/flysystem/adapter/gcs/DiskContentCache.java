@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.metrics.CacheKind;
+import com.flysystem.adapter.gcs.metrics.MetricsRecorder;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Logger;
+
+/**
+ * Read-through cache of object contents in a local directory, which may be shared by several processes.
+ * Every file holds one generation of one object, so a cached file never changes once it is complete:
+ * downloads go to a temporary file that is atomically moved into place, under an exclusive file lock so concurrent
+ * processes download an object only once. Which generation is current is checked with a metadata request,
+ * at most once per ttl per path. The total size of the files is bounded, least recently used files are deleted first;
+ * every process enforces the budget for the files it knows about. Lock files only exist while a download is in flight.
+ *
+ * @author Zeger Hoogeboom
+ */
+class DiskContentCache implements ObjectChangeListener
+{
+	private final static Logger logger = Logger.getLogger(DiskContentCache.class.getName());
+	private final static String SUFFIX = ".object";
+	private final static String LOCK_SUFFIX = ".lock";
+
+	interface Source
+	{
+		StorageObject getObject(String path);
+
+		void download(String path, long generation, OutputStream out) throws IOException;
+	}
+
+	private final Source source;
+	private final Path directory;
+	private final long maxBytes;
+	private final long ttlMillis;
+	private final MetricsRecorder metrics;
+
+	private final Map<String, Validated> current = new ConcurrentHashMap<>();
+	private final Striped<Lock> downloads = Striped.lock(64);
+	// least recently used first, guarded by itself
+	private final LinkedHashMap<Path, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+
+	private static class Validated
+	{
+		final long generation;
+		final long validatedAt;
+
+		Validated(long generation, long validatedAt)
+		{
+			this.generation = generation;
+			this.validatedAt = validatedAt;
+		}
+	}
+
+	DiskContentCache(Source source, Path directory, long maxBytes, long ttl, TimeUnit unit) throws IOException
+	{
+		this(source, directory, maxBytes, ttl, unit, MetricsRecorder.NOOP);
+	}
+
+	/**
+	 * @param metrics counts a hit for every read served from a cached file and a miss for every download.
+	 */
+	DiskContentCache(Source source, Path directory, long maxBytes, long ttl, TimeUnit unit, MetricsRecorder metrics) throws IOException
+	{
+		this.source = source;
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+		this.ttlMillis = unit.toMillis(ttl);
+		this.metrics = metrics;
+		load();
+	}
+
+	/**
+	 * @return a complete file holding the current generation of the object.
+	 */
+	Path get(String path) throws IOException
+	{
+		long generation = currentGeneration(path);
+		Path file = file(path, generation);
+		if (touch(file)) {
+			metrics.cacheHit(CacheKind.CONTENT);
+			return file;
+		}
+		Lock lock = downloads.get(file);
+		lock.lock();
+		Path lockFile = lockFile(file);
+		try {
+			try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				 FileLock ignored = lockChannel.lock()) {
+				if (Files.exists(file)) {
+					// downloaded by another thread or process while waiting for the lock
+					metrics.cacheHit(CacheKind.CONTENT);
+				} else {
+					metrics.cacheMiss(CacheKind.CONTENT);
+					download(path, generation, file);
+				}
+				add(file, Files.size(file));
+				return file;
+			} finally {
+				// A complete file never changes, so waiters only need the lock until it exists. One that still waits on
+				// the deleted lock file after a failed download may download alongside a newcomer, the move keeps that safe.
+				deleteQuietly(lockFile);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	String read(String path) throws IOException
+	{
+		for (int attempt = 0; ; attempt++) {
+			Path file = get(path);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return StandardCharsets.UTF_8.decode(mapped).toString();
+			} catch (NoSuchFileException e) {
+				// evicted by another process in between
+				if (attempt > 0) throw e;
+				forget(file);
+			}
+		}
+	}
+
+	/**
+	 * Once opened, the stream keeps reading the file when it is evicted meanwhile.
+	 */
+	InputStream openStream(String path) throws IOException
+	{
+		for (int attempt = 0; ; attempt++) {
+			Path file = get(path);
+			try {
+				return Files.newInputStream(file);
+			} catch (NoSuchFileException e) {
+				// evicted by another process in between
+				if (attempt > 0) throw e;
+				forget(file);
+			}
+		}
+	}
+
+	long transferTo(String path, OutputStream out) throws IOException
+	{
+		for (int attempt = 0; ; attempt++) {
+			Path file = get(path);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				long size = channel.size();
+				long position = 0;
+				while (position < size) position += channel.transferTo(position, size - position, Channels.newChannel(out));
+				return size;
+			} catch (NoSuchFileException e) {
+				if (attempt > 0) throw e;
+				forget(file);
+			}
+		}
+	}
+
+	public void changed(String path, StorageObject object)
+	{
+		Validated previous = current.remove(path);
+		if (previous != null && (object == null || object.getGeneration() == null || object.getGeneration() != previous.generation)) {
+			delete(file(path, previous.generation));
+		}
+	}
+
+	public void removed(String path)
+	{
+		Validated previous = current.remove(path);
+		if (previous != null) delete(file(path, previous.generation));
+	}
+
+	long size()
+	{
+		synchronized (files) {
+			return bytes;
+		}
+	}
+
+	private long currentGeneration(String path)
+	{
+		Validated validated = current.get(path);
+		long now = System.currentTimeMillis();
+		if (validated != null && now - validated.validatedAt < ttlMillis) return validated.generation;
+		long generation = source.getObject(path).getGeneration();
+		current.put(path, new Validated(generation, now));
+		return generation;
+	}
+
+	private void download(String path, long generation, Path file) throws IOException
+	{
+		Path temporary = Files.createTempFile(directory, null, ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temporary)) {
+				source.download(path, generation, out);
+			}
+			Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Marks the file as most recently used when it exists, also when it was downloaded by another process.
+	 */
+	private boolean touch(Path file) throws IOException
+	{
+		synchronized (files) {
+			if (files.get(file) != null) return true;
+		}
+		if (!Files.exists(file)) return false;
+		try {
+			add(file, Files.size(file));
+			return true;
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	private void add(Path file, long size)
+	{
+		List<Path> evicted = new ArrayList<>();
+		synchronized (files) {
+			Long previous = files.put(file, size);
+			if (previous == null) bytes += size;
+			Iterator<Map.Entry<Path, Long>> eldest = files.entrySet().iterator();
+			while (bytes > maxBytes && eldest.hasNext()) {
+				Map.Entry<Path, Long> entry = eldest.next();
+				if (entry.getKey().equals(file)) continue;
+				bytes -= entry.getValue();
+				evicted.add(entry.getKey());
+				eldest.remove();
+			}
+		}
+		for (Path path : evicted) deleteFile(path);
+	}
+
+	private void forget(Path file)
+	{
+		synchronized (files) {
+			Long size = files.remove(file);
+			if (size != null) bytes -= size;
+		}
+	}
+
+	private void delete(Path file)
+	{
+		forget(file);
+		deleteFile(file);
+	}
+
+	private void deleteFile(Path file)
+	{
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// e.g. still opened by another process on Windows, the next eviction tries again
+			logger.fine("Could not delete cached file " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static void deleteQuietly(Path file)
+	{
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.fine("Could not delete " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes the lock file of a process that stopped halfway a download. A lock file that is still held belongs to a
+	 * download in progress, deleting it would let a newcomer download alongside, so it is left alone.
+	 */
+	private static void deleteIfAbandoned(Path lockFile)
+	{
+		try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE);
+			 FileLock lock = channel.tryLock()) {
+			if (lock != null) Files.deleteIfExists(lockFile);
+		} catch (NoSuchFileException | OverlappingFileLockException ignored) {
+			// deleted by its owner meanwhile, or held by this process
+		} catch (IOException e) {
+			logger.fine("Could not delete " + lockFile + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Picks up files cached earlier, by this or another process, oldest first,
+	 * and removes the lock files of processes that stopped halfway a download.
+	 */
+	private void load() throws IOException
+	{
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX + LOCK_SUFFIX)) {
+			for (Path lockFile : stream) deleteIfAbandoned(lockFile);
+		}
+		List<Path> existing = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : stream) existing.add(file);
+		}
+		Collections.sort(existing, new Comparator<Path>()
+		{
+			public int compare(Path a, Path b)
+			{
+				return Long.compare(a.toFile().lastModified(), b.toFile().lastModified());
+			}
+		});
+		for (Path file : existing) {
+			try {
+				add(file, Files.size(file));
+			} catch (NoSuchFileException ignored) {
+				// evicted by another process meanwhile
+			}
+		}
+	}
+
+	private Path file(String path, long generation)
+	{
+		String key = Hashing.sha256().hashString(path, Charsets.UTF_8).toString();
+		return directory.resolve(key + "-" + generation + SUFFIX);
+	}
+
+	private static Path lockFile(Path file)
+	{
+		return file.resolveSibling(file.getFileName() + LOCK_SUFFIX);
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Answers {@link GCSAdapter#has(String)} locally where possible, both parts are optional.
+ * <ul>
+ * <li>A negative cache remembers paths GCS reported as missing for a short while.</li>
+ * <li>A Bloom filter over the object names under a directory, built from one listing. A path it does not contain
+ * does not exist, unless it was written by someone other than this adapter since the listing.</li>
+ * </ul>
+ * Writes and deletes of the adapter keep both up to date.
+ *
+ * @author Zeger Hoogeboom
+ */
+class ExistenceCache implements ObjectChangeListener
+{
+	private final static int WRITE_STRIPES = 1024;
+
+	private Cache<String, Boolean> absent;
+	// counts writes per stripe of paths, so a miss reported by GCS is not recorded over a write that completed meanwhile
+	private final AtomicLongArray writes = new AtomicLongArray(WRITE_STRIPES);
+
+	private String indexPrefix;
+	private BloomFilter<CharSequence> index;
+	private volatile boolean indexReady;
+	// Guava's BloomFilter is not thread safe, concurrent puts could lose bits and cause false negatives
+	private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+	void enableNegativeCache(long maximumSize, long ttl, TimeUnit unit)
+	{
+		absent = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttl, unit)
+				.build();
+	}
+
+	/**
+	 * Paths under the prefix are answered from the index once {@link #populate(Iterable)} completed.
+	 */
+	void enableIndex(String prefix, int expectedInsertions, double falsePositiveRate)
+	{
+		indexPrefix = prefix;
+		index = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), expectedInsertions, falsePositiveRate);
+	}
+
+	/**
+	 * @return whether {@link #lookup(String)} can answer anything locally.
+	 */
+	boolean isEnabled()
+	{
+		return absent != null || index != null;
+	}
+
+	boolean hasIndex()
+	{
+		return index != null;
+	}
+
+	String getIndexPrefix()
+	{
+		return indexPrefix;
+	}
+
+	boolean isIndexReady()
+	{
+		return indexReady;
+	}
+
+	void populate(Iterable<String> names)
+	{
+		for (String name : names) add(name);
+		indexReady = true;
+	}
+
+	/**
+	 * @return false when the path is known not to exist, null when GCS has to be asked.
+	 */
+	Boolean lookup(String path)
+	{
+		if (indexReady && covers(path)) {
+			indexLock.readLock().lock();
+			try {
+				if (!index.mightContain(path)) return false;
+			} finally {
+				indexLock.readLock().unlock();
+			}
+		}
+		if (absent != null && absent.getIfPresent(path) != null) return false;
+		return null;
+	}
+
+	void missing(String path)
+	{
+		if (absent != null) absent.put(path, Boolean.TRUE);
+	}
+
+	/**
+	 * To be taken before asking GCS whether the path exists, and handed to {@link #missing(String, long)}.
+	 */
+	long writeSequence(String path)
+	{
+		return writes.get(stripe(path));
+	}
+
+	/**
+	 * Records a miss unless the path (or another one in its stripe) was written since the sequence was taken.
+	 * The entry is put before the check, a write either sees and invalidates it or is seen by the check.
+	 */
+	void missing(String path, long writeSequence)
+	{
+		if (absent == null) return;
+		absent.put(path, Boolean.TRUE);
+		if (writes.get(stripe(path)) != writeSequence) absent.invalidate(path);
+	}
+
+	public void changed(String path, StorageObject object)
+	{
+		writes.incrementAndGet(stripe(path));
+		if (absent != null) absent.invalidate(path);
+		add(path);
+	}
+
+	private static int stripe(String path)
+	{
+		return path.hashCode() & (WRITE_STRIPES - 1);
+	}
+
+	public void removed(String path)
+	{
+		missing(path);
+	}
+
+	/**
+	 * The placeholder object of the directory itself is not listed, so it is not covered.
+	 */
+	private boolean covers(String path)
+	{
+		return path.startsWith(indexPrefix) && path.length() > indexPrefix.length();
+	}
+
+	private void add(String path)
+	{
+		if (index == null || !covers(path)) return;
+		indexLock.writeLock().lock();
+		try {
+			index.put(path);
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+	}
+}
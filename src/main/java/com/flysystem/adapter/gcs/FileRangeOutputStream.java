@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a byte range of a file in place, either with positional writes on the channel or through a memory mapping
+ * of just that range. Several instances can write disjoint ranges of the same channel concurrently.
+ *
+ * @author Zeger Hoogeboom
+ */
+class FileRangeOutputStream extends OutputStream
+{
+	private final FileChannel channel;
+	private final long offset;
+	private final long length;
+	private final MappedByteBuffer mapped;
+	private long written;
+
+	FileRangeOutputStream(FileChannel channel, long offset, long length, boolean memoryMapped) throws IOException
+	{
+		this.channel = channel;
+		this.offset = offset;
+		this.length = length;
+		this.mapped = memoryMapped ? channel.map(FileChannel.MapMode.READ_WRITE, offset, length) : null;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if (written + len > length) throw new IOException(String.format("Received more than the requested %d bytes at offset %d.", length, offset));
+		if (mapped != null) {
+			mapped.put(b, off, len);
+		} else {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			long position = offset + written;
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+		}
+		written += len;
+	}
+
+	long getWritten()
+	{
+		return written;
+	}
+
+	/**
+	 * Writes a memory mapped range through to the file, positional writes need no forcing to be seen by readers.
+	 */
+	void force()
+	{
+		if (mapped != null) mapped.force();
+	}
+}
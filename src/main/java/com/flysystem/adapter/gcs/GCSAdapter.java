@@ -22,42 +22,102 @@
 
 package com.flysystem.adapter.gcs;
 
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
 import com.flysystem.adapter.gcs.exception.GCSConnectionException;
+import com.flysystem.adapter.gcs.exception.PreconditionFailedException;
+import com.flysystem.adapter.gcs.interceptor.InterceptorChain;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.metrics.CacheKind;
+import com.flysystem.adapter.gcs.metrics.JmxMetrics;
+import com.flysystem.adapter.gcs.metrics.MetricsRecorder;
+import com.flysystem.adapter.gcs.metrics.Operation;
 import com.flysystem.core.Config;
 import com.flysystem.core.FileMetadata;
+import com.flysystem.core.Stream;
 import com.flysystem.core.Visibility;
 import com.flysystem.core.adapter.AbstractAdapter;
 import com.flysystem.core.exception.FileExistsException;
 import com.flysystem.core.exception.FileNotFoundException;
 import com.flysystem.core.exception.FlysystemGenericException;
+import com.flysystem.core.exception.RootViolationException;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.InputStreamContent;
+import com.google.api.client.http.apache.ApacheHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.storage.Storage;
 import com.google.api.services.storage.StorageScopes;
 import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.Objects;
+import com.google.api.services.storage.model.RewriteResponse;
 import com.google.api.services.storage.model.StorageObject;
+import com.google.common.collect.Lists;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.io.IOUtils;
 
+import javax.management.JMException;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
  * @author Zeger Hoogeboom
  */
-public class GCSAdapter extends AbstractAdapter
+public class GCSAdapter extends AbstractAdapter implements Stream, Closeable
 {
 	private final static Logger logger = Logger.getLogger(GCSAdapter.class.getName());
+	final static String DELIMITER = "/";
+	final static int BUFFER_SIZE = 64 * 1024;
+	final static String DEFAULT_MIMETYPE = "application/octet-stream";
+	final static int BATCH_PARALLELISM = 8;
+	// not defined by HttpStatusCodes in this version of the client
+	final static int STATUS_CODE_PRECONDITION_FAILED = 412;
+	final static String GZIP = "gzip";
+
+	/**
+	 * Partial response selectors, so GCS only serializes the properties StorageObjectConverter consumes.
+	 */
+	final static String OBJECT_FIELDS = "name,size,contentType,contentEncoding,updated,generation,metageneration";
+	final static String METADATA_FIELDS = OBJECT_FIELDS + ",acl(entity)";
+	final static String LIST_FIELDS = "nextPageToken,prefixes,items(" + OBJECT_FIELDS + ")";
 	private JsonFactory jsonFactory;
 	private HttpTransport httpTransport;
 
@@ -68,6 +128,39 @@ public class GCSAdapter extends AbstractAdapter
 	private boolean AUTH_LOCAL_WEBSERVER = true;
 
 	private Storage client;
+	private ListeningExecutorService executor;
+	private final List<ObjectChangeListener> listeners = new CopyOnWriteArrayList<>();
+	private long downloadRangeSize = 16 * 1024 * 1024;
+	private int downloadParallelism = 8;
+	private int uploadChunkSize = MediaHttpUploader.DEFAULT_CHUNK_SIZE;
+	private long compositeThreshold = Long.MAX_VALUE;
+	private int compositePartSize = 32 * 1024 * 1024;
+	private int compositeParallelism = 8;
+	private Long maxBytesRewrittenPerCall;
+	private int rewriteParallelism = 16;
+	private final PooledTransport pooledTransport = new PooledTransport();
+	private int connectTimeoutMillis = 20 * 1000;
+	private int readTimeoutMillis = 20 * 1000;
+	private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+	private boolean hedgedReads;
+	private HedgedRequests hedgedRequests;
+	private final ExistenceCache existence = new ExistenceCache();
+	private Path contentCacheDirectory;
+	private long contentCacheMaxBytes;
+	private long contentCacheTtlMillis;
+	private DiskContentCache contentCache;
+	private List<String> gzipContentTypes = Collections.emptyList();
+	private boolean verifyChecksums = true;
+	private Checksums checksums;
+	private boolean emulated;
+	private MetricsRecorder metrics;
+	private boolean jmxMetrics;
+	private JmxMetrics registeredMetrics;
+	private ApacheHttpTransport ownedTransport;
+	private ExecutorService ownedExecutor;
+	private boolean contentTypeMagic = true;
+	private ContentTypeDetector contentTypes;
+	private final List<RequestInterceptor> interceptors = new ArrayList<>();
 
 	private GCSAdapter(){}
 
@@ -100,6 +193,17 @@ public class GCSAdapter extends AbstractAdapter
 			return this;
 		}
 
+		/**
+		 * The executor used for background work such as prefetching listing pages.
+		 * Defaults to a cached pool of daemon threads.
+		 * @param executor
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setExecutorService(ExecutorService executor) {
+			adapter.executor = MoreExecutors.listeningDecorator(executor);
+			return this;
+		}
+
 		/**
 		 * The expected path of your .p12 key is ${rootOfProject}/keyName.
 	     * ${rootOfProject} is retrieved with the variable System.getProperty("user.dir").
@@ -134,20 +238,60 @@ public class GCSAdapter extends AbstractAdapter
 			return this;
 		}
 
+		/**
+		 * Uses the transport, credential and client of a shared context, which makes building the adapter cheap.
+		 * When set, no other connection properties are required and the timeouts and retry policy of the context apply.
+		 * @param context
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setClientContext(GCSClientContext context) {
+			return setClient(context.getClient());
+		}
+
 		private void withDefaults()
 		{
 			if (adapter.httpTransport == null) {
 				try {
-					setHttpTransport(GoogleNetHttpTransport.newTrustedTransport());
+					setHttpTransport(adapter.ownedTransport = adapter.pooledTransport.build());
 				} catch (GeneralSecurityException | IOException e) {
 					throw new FlysystemGenericException(e);
 				}
 			}
 			if (adapter.jsonFactory == null) setJsonFactory(JacksonFactory.getDefaultInstance());
+			if (adapter.executor == null) {
+				setExecutorService(adapter.ownedExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("gcs-adapter-%d").build()));
+			}
+			if (adapter.metrics == null) {
+				adapter.metrics = adapter.jmxMetrics ? (adapter.registeredMetrics = jmxMetrics(adapter.bucketName)) : MetricsRecorder.NOOP;
+			}
+			adapter.checksums = new Checksums(adapter.metrics);
+			final ContentTypeDetector contentTypes = adapter.contentTypes = new ContentTypeDetector(adapter.contentTypeMagic);
+			if (adapter.contentTypeMagic) {
+				adapter.executor.execute(new Runnable()
+				{
+					public void run()
+					{
+						contentTypes.warmUp();
+					}
+				});
+			}
+			if (adapter.hedgedReads) adapter.hedgedRequests = new HedgedRequests();
+			adapter.addChangeListener(adapter.existence);
+			if (adapter.contentCacheDirectory != null) {
+				try {
+					adapter.contentCache = new DiskContentCache(adapter.contentSource, adapter.contentCacheDirectory,
+							adapter.contentCacheMaxBytes, adapter.contentCacheTtlMillis, TimeUnit.MILLISECONDS, adapter.metrics);
+				} catch (IOException e) {
+					throw new FlysystemGenericException(e);
+				}
+				adapter.addChangeListener(adapter.contentCache);
+			}
 
 			if (adapter.client == null) {
 				try {
-					adapter.client = new Storage.Builder(adapter.httpTransport, adapter.jsonFactory, adapter.authorize())
+					Credential credential = adapter.emulated ? null : adapter.authorize();
+					adapter.client = new Storage.Builder(adapter.httpTransport, adapter.jsonFactory, new GCSRequestInitializer(credential, adapter.connectTimeoutMillis, adapter.readTimeoutMillis, adapter.retryPolicy,
+								adapter.metrics, new InterceptorChain(adapter.interceptors)))
 							.setApplicationName(adapter.applicationName).build();
 				} catch (IOException e) {
 					throw new FlysystemGenericException(e);
@@ -155,13 +299,291 @@ public class GCSAdapter extends AbstractAdapter
 			}
 		}
 
+		/**
+		 * Tuning for {@link GCSAdapter#download(String, Path, boolean)}.
+		 * @param rangeSize   the number of bytes fetched per request, defaults to 16 MiB, at most 2 GiB as ranges can be memory mapped.
+		 * @param parallelism the number of ranges fetched concurrently, defaults to 8.
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setRangedDownload(long rangeSize, int parallelism) {
+			if (rangeSize < 1 || parallelism < 1) throw new IllegalArgumentException("Range size and parallelism have to be positive.");
+			if (rangeSize > Integer.MAX_VALUE) throw new IllegalArgumentException("The range size is at most 2 GiB, the size of a memory mapping.");
+			adapter.downloadRangeSize = rangeSize;
+			adapter.downloadParallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * The chunk size of resumable uploads, a multiple of 256 KiB. Defaults to 10 MiB.
+		 * Uploads of a known length up to this size are sent in a single request.
+		 * @param chunkSize
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setUploadChunkSize(int chunkSize) {
+			if (chunkSize < MediaHttpUploader.MINIMUM_CHUNK_SIZE || chunkSize % MediaHttpUploader.MINIMUM_CHUNK_SIZE != 0) {
+				throw new IllegalArgumentException("The upload chunk size has to be a multiple of 256 KiB.");
+			}
+			adapter.uploadChunkSize = chunkSize;
+			return this;
+		}
+
+		/**
+		 * Files of at least {@code threshold} bytes are uploaded as parts of {@code partSize} bytes, {@code parallelism} at a time,
+		 * and composed into the destination object. Disabled by default.
+		 * @param threshold   the file size from which composite uploads are used.
+		 * @param partSize    the size of each part, defaults to 32 MiB.
+		 * @param parallelism the number of parts uploaded concurrently, defaults to 8.
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setCompositeUpload(long threshold, int partSize, int parallelism) {
+			if (threshold < 0 || partSize < 1 || parallelism < 1) throw new IllegalArgumentException("Threshold, part size and parallelism have to be positive.");
+			adapter.compositeThreshold = threshold;
+			adapter.compositePartSize = partSize;
+			adapter.compositeParallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * Tuning for copies and renames, which are done with objects.rewrite.
+		 * @param maxBytesRewrittenPerCall a multiple of 1 MiB, large objects take one call per this many bytes.
+		 *                                 Defaults to letting GCS decide.
+		 * @param parallelism              the number of objects rewritten concurrently by
+		 *                                 {@link GCSAdapter#copyPrefix(String, String)} and {@link GCSAdapter#renamePrefix(String, String)}, defaults to 16.
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setRewrite(long maxBytesRewrittenPerCall, int parallelism) {
+			if (maxBytesRewrittenPerCall < 1 || maxBytesRewrittenPerCall % (1024 * 1024) != 0) {
+				throw new IllegalArgumentException("The maximum bytes rewritten per call has to be a multiple of 1 MiB.");
+			}
+			if (parallelism < 1) throw new IllegalArgumentException("Parallelism has to be positive.");
+			adapter.maxBytesRewrittenPerCall = maxBytesRewrittenPerCall;
+			adapter.rewriteParallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * Sizes the connection pool of the default transport. Ignored when a transport is set.
+		 * @param maxConnections         the maximum number of open connections, defaults to 200.
+		 * @param maxConnectionsPerRoute the maximum number of open connections to one host, defaults to 100.
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setConnectionPool(int maxConnections, int maxConnectionsPerRoute) {
+			if (maxConnections < 1 || maxConnectionsPerRoute < 1) throw new IllegalArgumentException("Connection limits have to be positive.");
+			adapter.pooledTransport.maxConnections = maxConnections;
+			adapter.pooledTransport.maxConnectionsPerRoute = maxConnectionsPerRoute;
+			return this;
+		}
+
+		/**
+		 * Pooled connections of the default transport that are idle for longer than this are closed. Defaults to 60 seconds.
+		 * Ignored when a transport is set.
+		 * @param timeout
+		 * @param unit
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setIdleConnectionTimeout(long timeout, TimeUnit unit) {
+			if (timeout < 1) throw new IllegalArgumentException("The idle connection timeout has to be positive.");
+			adapter.pooledTransport.idleTimeoutMillis = unit.toMillis(timeout);
+			return this;
+		}
+
+		/**
+		 * Enables or disables TCP_NODELAY on the connections of the default transport, enabled by default.
+		 * Ignored when a transport is set.
+		 * @param tcpNoDelay
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setTcpNoDelay(boolean tcpNoDelay) {
+			adapter.pooledTransport.tcpNoDelay = tcpNoDelay;
+			return this;
+		}
+
+		/**
+		 * Timeouts of every request, whichever transport is used. Both default to 20 seconds, 0 means infinite.
+		 * @param connectTimeoutMillis the timeout to establish a connection.
+		 * @param readTimeoutMillis    the timeout between two reads of the response.
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+			if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) throw new IllegalArgumentException("Timeouts can not be negative.");
+			adapter.connectTimeoutMillis = connectTimeoutMillis;
+			adapter.readTimeoutMillis = readTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * Which failed requests are retried and how, defaults to {@link RetryPolicy#DEFAULT}.
+		 * Only applies to the client built by this builder, not to one that is set.
+		 * @param retryPolicy
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+			adapter.retryPolicy = retryPolicy;
+			return this;
+		}
+
+		/**
+		 * Hedges {@link GCSAdapter#has(String)} and metadata lookups: a lookup that is slower than 95% of recent ones
+		 * is sent a second time and the first answer wins. Reads of contents are not hedged, a hedge would download
+		 * the whole object again. Disabled by default.
+		 * @param hedgedReads
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setHedgedReads(boolean hedgedReads) {
+			adapter.hedgedReads = hedgedReads;
+			return this;
+		}
+
+		/**
+		 * Remembers for a while which paths {@link GCSAdapter#has(String)} found missing. Disabled by default.
+		 * Objects created by others in the meantime are reported missing until the entry expires, so keep the ttl short.
+		 * @param maximumSize the maximum number of remembered paths.
+		 * @param ttl         how long a path is remembered.
+		 * @param unit
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setNegativeCache(long maximumSize, long ttl, TimeUnit unit) {
+			adapter.existence.enableNegativeCache(maximumSize, ttl, unit);
+			return this;
+		}
+
+		/**
+		 * Lists the directory in the background when the adapter is built and keeps a Bloom filter of the names,
+		 * so {@link GCSAdapter#has(String)} answers most misses under it without a request. Disabled by default.
+		 * Only use it for directories that are written through this adapter, objects created by others after the listing are reported missing.
+		 * @param directory          the directory to index, including its subdirectories.
+		 * @param expectedInsertions the expected number of objects, the filter degrades when it holds many more.
+		 * @param falsePositiveRate  the fraction of missing paths that still needs a request, e.g. 0.01.
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setExistenceIndex(String directory, int expectedInsertions, double falsePositiveRate) {
+			adapter.existence.enableIndex(toPrefix(directory), expectedInsertions, falsePositiveRate);
+			return this;
+		}
+
+		/**
+		 * Caches the contents read by {@link GCSAdapter#read(String)}, {@link GCSAdapter#readInputStream(String)} and
+		 * {@link GCSAdapter#transferTo(String, OutputStream)} in a local directory, which processes on the same host may share.
+		 * Disabled by default.
+		 * @param directory the cache directory, created when missing.
+		 * @param maxBytes  the total size of the cached files, least recently used files are deleted first.
+		 * @param ttl       how long a path is served without checking its generation with a metadata request, 0 checks on every read.
+		 * @param unit
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setDiskCache(Path directory, long maxBytes, long ttl, TimeUnit unit) {
+			if (maxBytes < 1 || ttl < 0) throw new IllegalArgumentException("The cache size has to be positive and the ttl can not be negative.");
+			adapter.contentCacheDirectory = directory;
+			adapter.contentCacheMaxBytes = maxBytes;
+			adapter.contentCacheTtlMillis = unit.toMillis(ttl);
+			return this;
+		}
+
+		/**
+		 * Stores writes and uploads whose content type starts with one of {@code contentTypes} gzip encoded,
+		 * e.g. "text/" or "application/json". The config key "gzip" overrides this per write. Disabled by default.
+		 * Reads decompress such objects while streaming, but their reported size is the compressed size.
+		 * @param contentTypes
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setGzipContentTypes(String... contentTypes) {
+			adapter.gzipContentTypes = Arrays.asList(contentTypes);
+			return this;
+		}
+
+		/**
+		 * Uploads send or check the CRC32C of their contents and downloads check the contents against the checksum
+		 * GCS sends along, while streaming. Ranged downloads and gzip encoded objects are not verified. Enabled by default,
+		 * trusted hot paths can skip the hashing.
+		 * @param verifyChecksums
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setVerifyChecksums(boolean verifyChecksums) {
+			adapter.verifyChecksums = verifyChecksums;
+			return this;
+		}
+
+		/**
+		 * Writes and uploads without the config key "mimetype" get the content type of the extension of their path,
+		 * or else of their first few KiB: common formats and text are recognized by their first bytes, other binary
+		 * contents are matched with jmimemagic. Its rules take close to a second to load, which is done in the
+		 * background when the adapter is built. Disable this to skip jmimemagic, unrecognized contents are then
+		 * stored as text/plain by writes and application/octet-stream by uploads. Enabled by default.
+		 * @param contentTypeMagic
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setContentTypeMagic(boolean contentTypeMagic) {
+			adapter.contentTypeMagic = contentTypeMagic;
+			return this;
+		}
+
+		/**
+		 * Sends every request to an in-process emulator instead of GCS, no credentials are needed.
+		 * The timeouts, retry policy and other tuning of the builder still apply.
+		 * @param emulator
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setEmulator(StorageEmulator emulator) {
+			adapter.httpTransport = emulator;
+			adapter.emulated = true;
+			return this;
+		}
+
+		/**
+		 * Receives the latency of every operation and the requests, retries and cache hits behind them.
+		 * Defaults to {@link MetricsRecorder#NOOP}, or see {@link #setJmxMetrics(boolean)}.
+		 * With a client or client context set, requests are only recorded by the recorder of the context.
+		 * @param metrics
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setMetrics(MetricsRecorder metrics) {
+			adapter.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * Records the metrics in a {@link JmxMetrics} registered with the platform MBeanServer under the name of the bucket,
+		 * until {@link GCSAdapter#close()}. Off by default: every registration takes 16 MBeans and about half a MB of histograms,
+		 * too much for adapters that are built often. Does not apply when a recorder is set with {@link #setMetrics(MetricsRecorder)}.
+		 * @param jmxMetrics
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder setJmxMetrics(boolean jmxMetrics) {
+			adapter.jmxMetrics = jmxMetrics;
+			return this;
+		}
+
+		/**
+		 * Adds an interceptor every request passes, to tune or observe requests, e.g. {@link com.flysystem.adapter.gcs.interceptor.RequestTimeouts},
+		 * {@link com.flysystem.adapter.gcs.interceptor.CorrelationIdInterceptor} or {@link com.flysystem.adapter.gcs.interceptor.SlowRequestSampler}.
+		 * Interceptors run in the order they are added. Only applies to the client built by this builder, not to one that is set.
+		 * @param interceptor
+		 * @return GCSAdapter.Builder
+		 */
+		public Builder addInterceptor(RequestInterceptor interceptor) {
+			adapter.interceptors.add(interceptor);
+			return this;
+		}
+
+		private static JmxMetrics jmxMetrics(String name)
+		{
+			JmxMetrics metrics = new JmxMetrics();
+			try {
+				metrics.register(ManagementFactory.getPlatformMBeanServer(), String.valueOf(name));
+			} catch (JMException e) {
+				logger.warning("Could not register the metrics of the adapter with JMX: " + e.getMessage());
+			}
+			return metrics;
+		}
+
 		public GCSAdapter build()
 		{
 			if (adapter.bucketName == null && adapter.client == null) throw new GCSConnectionException("Bucket name has to be provided.");
-			if (adapter.serviceAccountEmail == null && adapter.client == null) throw new GCSConnectionException("Service account email has to be provided.");
-			if (adapter.p12Key == null && adapter.client == null) throw new GCSConnectionException("A .p12 key has to be provided.");
-			if (adapter.applicationName == null && adapter.client == null) logger.warning("You didn't set your Application name. GCS will log warning messages because of this! Suggested format is \"MyCompany-ProductName/1.0\".");
+			if (adapter.serviceAccountEmail == null && adapter.client == null && !adapter.emulated) throw new GCSConnectionException("Service account email has to be provided.");
+			if (adapter.p12Key == null && adapter.client == null && !adapter.emulated) throw new GCSConnectionException("A .p12 key has to be provided.");
+			if (adapter.applicationName == null && adapter.client == null && !adapter.emulated) logger.warning("You didn't set your Application name. GCS will log warning messages because of this! Suggested format is \"MyCompany-ProductName/1.0\".");
 			withDefaults();
+			if (adapter.existence.hasIndex()) adapter.populateExistenceIndex();
 			return adapter;
 		}
 	}
@@ -180,156 +602,1262 @@ public class GCSAdapter extends AbstractAdapter
 		}
 	}
 
-	public boolean has(String path)
+	/**
+	 * Reads the object only when its generation differs from {@code knownGeneration}, otherwise no contents are transferred.
+	 */
+	public ConditionalRead readIfChanged(String path, long knownGeneration) throws FileNotFoundException
+	{
+		return readIfChanged(path, knownGeneration, null);
+	}
+
+	/**
+	 * Reads the object only when its etag differs from {@code knownEtag}, otherwise no contents are transferred.
+	 */
+	public ConditionalRead readIfChanged(String path, String knownEtag) throws FileNotFoundException
+	{
+		return readIfChanged(path, null, knownEtag);
+	}
+
+	private ConditionalRead readIfChanged(String path, Long knownGeneration, String knownEtag)
+	{
+		long started = started(Operation.CONDITIONAL_READ);
+		boolean success = false;
+		try {
+			ConditionalRead result = fetchIfChanged(path, knownGeneration, knownEtag);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.CONDITIONAL_READ, started, success);
+		}
+	}
+
+	private ConditionalRead fetchIfChanged(String path, Long knownGeneration, String knownEtag)
 	{
 		try {
 			Storage.Objects.Get get = client.objects().get(bucketName, path);
-			return get.execute() != null;
+			if (knownGeneration != null) get.setIfGenerationNotMatch(knownGeneration);
+			if (knownEtag != null) get.getRequestHeaders().setIfNoneMatch(knownEtag);
+			try (InputStream stream = media(get, path)) {
+				HttpHeaders headers = get.getLastResponseHeaders();
+				String generation = headers.getFirstHeaderStringValue("x-goog-generation");
+				return ConditionalRead.modified(IOUtils.toString(stream, "UTF-8"),
+						generation == null ? null : Long.valueOf(generation), headers.getETag());
+			}
 		} catch (IOException e) {
-			return false;
+			if (e instanceof HttpResponseException && ((HttpResponseException) e).getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_MODIFIED) {
+				return ConditionalRead.notModified();
+			}
+			throw translate(path, e);
 		}
 	}
 
-	public String read(String path) throws FileNotFoundException
+	/**
+	 * Only requests the name of the object, and may be answered locally when a negative cache or existence index is set.
+	 */
+	public boolean has(final String path)
 	{
+		long started = started(Operation.HAS);
+		boolean success = false;
 		try {
-			Storage.Objects.Get execute = client.objects().get(bucketName, path);
-			execute.getMediaHttpDownloader().setDirectDownloadEnabled(true);
-			InputStream stream = execute.executeMediaAsInputStream();
-			return IOUtils.toString(stream, "UTF-8");
-		} catch (IOException e) {
-			throw new FlysystemGenericException(e);
+			boolean result = exists(path);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.HAS, started, success);
 		}
 	}
 
-	public List<FileMetadata> listContents(String directory, boolean recursive)
+	private boolean exists(final String path)
 	{
+		Boolean known = existence.lookup(path);
+		if (known != null) {
+			metrics.cacheHit(CacheKind.EXISTENCE);
+			return known;
+		}
+		if (existence.isEnabled()) metrics.cacheMiss(CacheKind.EXISTENCE);
+		long writeSequence = existence.writeSequence(path);
 		try {
-			List<StorageObject> execute = client.objects().list(bucketName).execute().getItems();
-			return StorageObjectConverter.doConvert(execute);
+			return hedged(new Callable<Boolean>()
+			{
+				public Boolean call() throws IOException
+				{
+					return client.objects().get(bucketName, path).setFields("name").execute() != null;
+				}
+			});
 		} catch (IOException e) {
-			e.printStackTrace();
+			if (!(translate(path, e) instanceof FileNotFoundException)) throw new FlysystemGenericException(e);
+			existence.missing(path, writeSequence);
+			return false;
 		}
-		return null;
 	}
 
-	public FileMetadata getMetadata(String path)
+	public String read(final String path) throws FileNotFoundException
 	{
-		return null;
+		long started = started(Operation.READ);
+		boolean success = false;
+		try {
+			String result = readString(path);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.READ, started, success);
+		}
 	}
 
-	public Long getSize(String path)
+	private String readString(final String path)
 	{
-		return getObject(path).getSize().longValue();
+		try {
+			if (contentCache != null) return contentCache.read(path);
+			try (InputStream stream = openStream(path)) {
+				return IOUtils.toString(stream, "UTF-8");
+			}
+		} catch (IOException e) {
+			throw translate(path, e);
+		}
 	}
 
-	public String getMimetype(String path)
+	/**
+	 * Opens the object's contents as a stream straight from the HTTP response, nothing is buffered up front.
+	 * The caller is responsible for closing it.
+	 */
+	public InputStream readInputStream(String path) throws FileNotFoundException
 	{
-		return getObject(path).getContentType();
+		long started = started(Operation.READ_STREAM);
+		boolean success = false;
+		try {
+			InputStream result = openStream(path);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.READ_STREAM, started, success);
+		}
 	}
 
-	public Long getTimestamp(String path)
+	private InputStream openStream(String path)
 	{
-		return getObject(path).getUpdated().getValue();
+		try {
+			if (contentCache != null) return contentCache.openStream(path);
+			Storage.Objects.Get execute = client.objects().get(bucketName, path);
+			execute.getMediaHttpDownloader().setDirectDownloadEnabled(true);
+			return media(execute, path);
+		} catch (IOException e) {
+			throw translate(path, e);
+		}
 	}
 
-	public Visibility getVisibility(String path)
+	public ReadableByteChannel readChannel(String path) throws FileNotFoundException
 	{
-		return null;
+		return Channels.newChannel(readInputStream(path));
 	}
 
-	public boolean write(String path, String contents, Config config)
+	/**
+	 * Copies the object's contents into {@code out} through a fixed size buffer, so memory use does not depend on the object size.
+	 * @return the number of bytes copied.
+	 */
+	public long transferTo(String path, OutputStream out) throws FileNotFoundException
 	{
-		return false;
+		long started = started(Operation.TRANSFER);
+		boolean success = false;
+		try {
+			long result = transfer(path, out);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.TRANSFER, started, success);
+		}
 	}
 
-	public boolean write(String path, String contents)
+	private long transfer(String path, OutputStream out)
+	{
+		if (contentCache != null) {
+			try {
+				return contentCache.transferTo(path, out);
+			} catch (IOException e) {
+				throw translate(path, e);
+			}
+		}
+		try (InputStream stream = openStream(path)) {
+			return IOUtils.copyLarge(stream, out, new byte[BUFFER_SIZE]);
+		} catch (IOException e) {
+			throw translate(path, e);
+		}
+	}
+
+	/**
+	 * Downloads the object into {@code target} by fetching byte ranges concurrently, each written directly at its offset.
+	 * Every range is pinned to the generation seen when the download started, so the pieces are always consistent.
+	 * The range size and parallelism are configured on the builder.
+	 * @param memoryMapped write through a memory mapping of each range instead of positional channel writes.
+	 * @return the number of bytes downloaded.
+	 */
+	public long download(final String path, Path target, final boolean memoryMapped) throws FileNotFoundException
 	{
+		long started = started(Operation.DOWNLOAD);
+		boolean success = false;
 		try {
-			StorageObject object = new StorageObject();
-			object.setBucket(bucketName);
-			InputStreamContent mediaContent = new InputStreamContent("text/plain", new ByteArrayInputStream(contents.getBytes()))
-				.setLength(contents.length());
-			client.objects().insert(bucketName, object, mediaContent)
-					.setName(path)
-					.execute();
-			return true;
+			long result = downloadRanges(path, target, memoryMapped);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.DOWNLOAD, started, success);
+		}
+	}
+
+	private long downloadRanges(final String path, Path target, final boolean memoryMapped)
+	{
+		StorageObject object = getObject(path);
+		final long size = object.getSize().longValue();
+		final Long generation = object.getGeneration();
+		try (final FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			if (GZIP.equals(object.getContentEncoding())) {
+				// ranges address the stored compressed bytes, so the object is streamed whole and decompressed on the way in
+				Storage.Objects.Get get = client.objects().get(bucketName, path).setGeneration(generation);
+				get.getMediaHttpDownloader().setDirectDownloadEnabled(true);
+				CountingOutputStream out = new CountingOutputStream(Channels.newOutputStream(channel));
+				get.executeMediaAndDownloadTo(out);
+				return out.getCount();
+			}
+			List<Callable<Long>> ranges = new ArrayList<>();
+			for (long offset = 0; offset < size; offset += downloadRangeSize) {
+				final long first = offset;
+				final long length = Math.min(downloadRangeSize, size - offset);
+				ranges.add(new Callable<Long>()
+				{
+					public Long call() throws IOException
+					{
+						return downloadRange(path, generation, channel, first, length, memoryMapped);
+					}
+				});
+			}
+			ParallelTasks.invokeAll(executor, ranges, downloadParallelism);
+			return size;
 		} catch (IOException e) {
-			throw new FlysystemGenericException(e);
+			throw translate(path, e);
 		}
 	}
 
-	public boolean update(String path, String contents)
+	public long download(String path, Path target) throws FileNotFoundException
+	{
+		return download(path, target, false);
+	}
+
+	private long downloadRange(String path, Long generation, FileChannel channel, long first, long length, boolean memoryMapped) throws IOException
+	{
+		Storage.Objects.Get get = client.objects().get(bucketName, path);
+		get.setGeneration(generation);
+		// Set on the request itself, MediaHttpDownloader.setContentRange only takes an int as last byte position.
+		get.getRequestHeaders().setRange(String.format("bytes=%d-%d", first, first + length - 1));
+		get.getMediaHttpDownloader().setDirectDownloadEnabled(true);
+		FileRangeOutputStream out = new FileRangeOutputStream(channel, first, length, memoryMapped);
+		get.executeMediaAndDownloadTo(out);
+		if (out.getWritten() != length) {
+			throw new IOException(String.format("Expected %d bytes at offset %d of %s but received %d.", length, first, path, out.getWritten()));
+		}
+		out.force();
+		return length;
+	}
+
+	/**
+	 * An OutputStream can't be the source of an upload, so the write side of {@link Stream} is not supported.
+	 */
+	public boolean writeStream(String path, OutputStream stream, Config config)
 	{
 		return false;
 	}
 
-	public boolean update(String path, String contents, Config config)
+	public boolean writeStream(String path, OutputStream stream)
 	{
 		return false;
 	}
 
-	public boolean rename(String from, String to) throws FileExistsException, FileNotFoundException
+	public boolean updateStream(String path, OutputStream stream, Config config)
 	{
 		return false;
 	}
 
-	public boolean copy(String path, String newpath)
+	public boolean updateStream(String path, OutputStream stream)
 	{
-		try {
-			client.objects().copy(bucketName, path, bucketName, newpath, new StorageObject()).execute();
-			return true;
-		} catch (IOException e) {
-			return false;
-		}
+		return false;
 	}
 
-	public boolean delete(String path)
+	public String readStream(String path)
 	{
-		try {
-			client.objects().delete(bucketName, path).execute();
-		} catch (IOException e) {
-			throw new FlysystemGenericException(e);
-		}
-		return true;
+		return read(path);
 	}
 
-	public boolean deleteDir(String dirname)
+	public boolean putStream(String path, OutputStream stream, Config config)
 	{
 		return false;
 	}
 
-	public boolean createDir(String dirname, Config config)
+	public boolean putStream(String path, OutputStream stream)
 	{
 		return false;
 	}
 
-	public boolean createDir(String dirname)
+	/**
+	 * Lists everything under {@code directory}, following the page tokens until the listing is exhausted.
+	 * The directory is pushed down as a prefix; a non-recursive listing uses the "/" delimiter so GCS
+	 * returns the direct children only, with sub directories as common prefixes.
+	 */
+	public List<FileMetadata> listContents(String directory, boolean recursive)
 	{
-		return false;
+		long started = started(Operation.LIST);
+		boolean success = false;
+		try {
+			List<FileMetadata> result = list(directory, recursive);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.LIST, started, success);
+		}
 	}
 
-	public boolean setVisibility(String path, Visibility visibility)
+	private List<FileMetadata> list(String directory, boolean recursive)
 	{
-		return false;
+		return Lists.newArrayList(iterateContents(directory, recursive));
 	}
 
-	private Bucket getBucket()
+	/**
+	 * Streaming variant of {@link #listContents(String, boolean)} for listings too large to hold in memory.
+	 * Pages are converted as they are consumed and the next page is prefetched in the background.
+	 */
+	public Iterator<FileMetadata> iterateContents(String directory, boolean recursive)
+	{
+		return new ContentsIterator(lister, executor, toPrefix(directory), recursive);
+	}
+
+	/**
+	 * Recursive listing of {@code directory} that splits the key space into sub directory shards and lists
+	 * up to {@code parallelism} shards concurrently. Useful for whole bucket inventories, where a single
+	 * page token chain is bound by round trip time.
+	 * @param ordered when true the result is in the same (lexicographic) order as {@link #listContents(String, boolean)},
+	 *                otherwise shards are appended as they complete.
+	 */
+	public List<FileMetadata> listContentsParallel(String directory, int parallelism, boolean ordered)
 	{
+		long started = started(Operation.LIST);
+		boolean success = false;
 		try {
-			Bucket execute = client.buckets().get(bucketName).execute();
-			return execute;
-		} catch (IOException e) {
-			throw new FlysystemGenericException(e);
+			List<FileMetadata> result = listParallel(directory, parallelism, ordered);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.LIST, started, success);
 		}
 	}
 
-	private StorageObject getObject(String path)
+	private List<FileMetadata> listParallel(String directory, int parallelism, boolean ordered)
+	{
+		return new ShardedLister(lister, executor, parallelism).list(toPrefix(directory), ordered);
+	}
+
+	/**
+	 * Retrieves all metadata, including the visibility, in a single request.
+	 */
+	public FileMetadata getMetadata(String path)
 	{
+		long started = started(Operation.METADATA);
+		boolean success = false;
 		try {
-			return client.objects().get(bucketName, path).execute();
-		} catch (IOException e) {
-			throw new FlysystemGenericException(e);
+			FileMetadata result = metadata(path);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.METADATA, started, success);
+		}
+	}
+
+	private FileMetadata metadata(String path)
+	{
+		return new StorageObjectConverter().convert(getObject(path, true));
+	}
+
+	public Long getSize(String path)
+	{
+		return lookup(path).getSize().longValue();
+	}
+
+	public String getMimetype(String path)
+	{
+		return lookup(path).getContentType();
+	}
+
+	public Long getTimestamp(String path)
+	{
+		return lookup(path).getUpdated().getValue();
+	}
+
+	/**
+	 * Recorded as a {@link Operation#METADATA} operation by {@link #getMetadata(String)}.
+	 */
+	public Visibility getVisibility(String path)
+	{
+		return getMetadata(path).getVisibility();
+	}
+
+	/**
+	 * Fetches the object for the single field getters, recorded as a {@link Operation#METADATA} operation.
+	 */
+	private StorageObject lookup(String path)
+	{
+		long started = started(Operation.METADATA);
+		boolean success = false;
+		try {
+			StorageObject result = getObject(path);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.METADATA, started, success);
+		}
+	}
+
+	/**
+	 * With the config key "gzip" set to true, or a content type configured with {@link Builder#setGzipContentTypes(String...)},
+	 * the contents are stored gzip encoded.
+	 */
+	public boolean write(String path, String contents, Config config)
+	{
+		long started = started(Operation.WRITE);
+		boolean success = false;
+		try {
+			boolean result = writeContents(path, contents, config);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.WRITE, started, success);
+		}
+	}
+
+	private boolean writeContents(String path, String contents, Config config)
+	{
+		byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+		String mimetype = contentType(path, config);
+		if (mimetype == null) mimetype = orDefault(contentTypes.sniff(bytes, bytes.length), ContentTypeDetector.TEXT);
+		String contentEncoding = null;
+		if (compresses(mimetype, config)) {
+			try {
+				bytes = IOUtils.toByteArray(new GzipCompressingInputStream(new ByteArrayInputStream(bytes)));
+			} catch (IOException e) {
+				throw new FlysystemGenericException(e);
+			}
+			contentEncoding = GZIP;
+		}
+		StorageObject metadata = new StorageObject().setContentEncoding(contentEncoding);
+		// GCS rejects the write when the contents it received do not match
+		if (verifyChecksums) metadata.setCrc32c(checksums.crc32c(bytes));
+		// byte array content can be sent again, so the write is retried when it has a precondition
+		return upload(path, new ByteArrayContent(mimetype, bytes), metadata, config);
+	}
+
+	public boolean write(String path, String contents)
+	{
+		return write(path, contents, new Config());
+	}
+
+	/**
+	 * Uploads a stream of unknown length with the resumable protocol, in chunks of the configured upload chunk size.
+	 * With the config key "composite" set to true the stream is uploaded as parallel parts instead, which are never gzip encoded.
+	 */
+	public boolean upload(String path, InputStream source, Config config)
+	{
+		long started = started(Operation.UPLOAD);
+		boolean success = false;
+		try {
+			boolean result = uploadStream(path, source, config);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.UPLOAD, started, success);
+		}
+	}
+
+	private boolean uploadStream(String path, InputStream source, Config config)
+	{
+		try {
+			String mimetype = contentType(path, config);
+			if (mimetype == null) {
+				PushbackInputStream peekable = new PushbackInputStream(source, ContentTypeDetector.SNIFF_BYTES);
+				mimetype = orDefault(contentTypes.sniff(peekable), DEFAULT_MIMETYPE);
+				source = peekable;
+			}
+			if (Boolean.TRUE.equals(config.get("composite"))) {
+				StorageObject composed = compositeUpload(config).upload(source, compositePartSize, destination(path, mimetype), predefinedAcl(config), ifGenerationMatch(config));
+				notifyChanged(path, composed);
+				return true;
+			}
+			return upload(path, source, -1, mimetype, config);
+		} catch (IOException e) {
+			throw failedWrite(path, e);
+		}
+	}
+
+	public boolean upload(String path, ReadableByteChannel source, Config config)
+	{
+		return upload(path, Channels.newInputStream(source), config);
+	}
+
+	/**
+	 * Files of at least the composite threshold, or any file with the config key "composite" set to true,
+	 * are uploaded as parallel parts and composed.
+	 */
+	public boolean upload(String path, Path source, Config config)
+	{
+		long started = started(Operation.UPLOAD);
+		boolean success = false;
+		try {
+			boolean result = uploadFile(path, source, config);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.UPLOAD, started, success);
+		}
+	}
+
+	private boolean uploadFile(String path, Path source, Config config)
+	{
+		try {
+			long size = Files.size(source);
+			String mimetype = contentType(path, config);
+			if (mimetype == null) mimetype = ContentTypeDetector.fromExtension(source.getFileName().toString());
+			if (mimetype == null) mimetype = orDefault(contentTypes.sniff(source), DEFAULT_MIMETYPE);
+			if (size >= compositeThreshold || Boolean.TRUE.equals(config.get("composite"))) {
+				StorageObject composed = compositeUpload(config).upload(source, compositePartSize, destination(path, mimetype), predefinedAcl(config), ifGenerationMatch(config));
+				notifyChanged(path, composed);
+				return true;
+			}
+			try (InputStream stream = Files.newInputStream(source)) {
+				return upload(path, stream, size, mimetype, config);
+			}
+		} catch (IOException e) {
+			throw failedWrite(path, e);
+		}
+	}
+
+	/**
+	 * Compressible uploads are gzip encoded while they are sent, their compressed length is not known up front.
+	 * @param length the number of bytes, or -1 when unknown.
+	 */
+	private boolean upload(String path, InputStream source, long length, String mimetype, Config config)
+	{
+		StorageObject metadata = new StorageObject();
+		try {
+			if (compresses(mimetype, config)) {
+				source = new GzipCompressingInputStream(source);
+				metadata.setContentEncoding(GZIP);
+				length = -1;
+			}
+			Checksums.ChecksumInputStream hashing = null;
+			if (verifyChecksums) source = hashing = checksums.hashing(source);
+			InputStreamContent content = new InputStreamContent(mimetype, source);
+			if (length >= 0) content.setLength(length);
+			StorageObject object = insert(path, content, metadata, config);
+			// the checksum is only known once everything is sent, so it is compared with what GCS computed afterwards
+			if (hashing != null && object.getCrc32c() != null && !object.getCrc32c().equals(hashing.checksum())) {
+				checksums.mismatch();
+				client.objects().delete(bucketName, path).setIfGenerationMatch(object.getGeneration()).execute();
+				throw new FlysystemGenericException(String.format("The crc32c of %s is %s but %s was sent, the object is deleted.",
+						path, object.getCrc32c(), hashing.checksum()));
+			}
+			notifyChanged(path, object);
+			return true;
+		} catch (IOException e) {
+			throw failedWrite(path, e);
+		}
+	}
+
+	private boolean compresses(String mimetype, Config config)
+	{
+		if (config.has(GZIP)) return Boolean.TRUE.equals(config.get(GZIP));
+		for (String contentType : gzipContentTypes) {
+			if (mimetype.startsWith(contentType)) return true;
+		}
+		return false;
+	}
+
+	private boolean upload(String path, AbstractInputStreamContent content, StorageObject metadata, Config config)
+	{
+		try {
+			notifyChanged(path, insert(path, content, metadata, config));
+			return true;
+		} catch (IOException e) {
+			throw failedWrite(path, e);
+		}
+	}
+
+	/**
+	 * Payloads known to fit in a single chunk go out as one multipart request, everything else uses a resumable session.
+	 * @param metadata properties of the object, such as the encoding the content is already in.
+	 */
+	private StorageObject insert(String path, AbstractInputStreamContent content, StorageObject metadata, Config config) throws IOException
+	{
+		long length = content.getLength();
+		Storage.Objects.Insert insert = client.objects().insert(bucketName, metadata.setBucket(bucketName), content)
+				.setName(path);
+		String acl = predefinedAcl(config);
+		if (acl != null) insert.setPredefinedAcl(acl);
+		Long ifGenerationMatch = ifGenerationMatch(config);
+		if (ifGenerationMatch != null) insert.setIfGenerationMatch(ifGenerationMatch);
+		Long ifMetagenerationMatch = ifMetagenerationMatch(config);
+		if (ifMetagenerationMatch != null) insert.setIfMetagenerationMatch(ifMetagenerationMatch);
+		// Chunks are not gzipped in transit, so the committed offsets reported by GCS are plain byte offsets.
+		insert.setDisableGZipContent(true);
+		insert.getMediaHttpUploader()
+				.setDirectUploadEnabled(length >= 0 && length <= uploadChunkSize)
+				.setChunkSize(uploadChunkSize);
+		return insert.execute();
+	}
+
+	private CompositeUpload compositeUpload(final Config config)
+	{
+		return new CompositeUpload(client, bucketName, executor, compositeParallelism, new CompositeUpload.PartUploader()
+		{
+			public StorageObject upload(String name, AbstractInputStreamContent content) throws IOException
+			{
+				// part names are unique, so parts must not exist yet, which also makes them safe to retry
+				Config part = new Config();
+				part.set("ifGenerationMatch", 0L);
+				return insert(name, content, new StorageObject(), part);
+			}
+		});
+	}
+
+	private static StorageObject destination(String path, String mimetype)
+	{
+		return new StorageObject().setName(path).setContentType(mimetype);
+	}
+
+	/**
+	 * The content type set with the config key "mimetype", or else the one of the extension of the path.
+	 * @return null when the contents have to be sniffed.
+	 */
+	private static String contentType(String path, Config config)
+	{
+		if (config.has("mimetype")) return (String) config.get("mimetype");
+		return ContentTypeDetector.fromExtension(path);
+	}
+
+	private static String orDefault(String contentType, String fallback)
+	{
+		return contentType != null ? contentType : fallback;
+	}
+
+	/**
+	 * A generation precondition makes a write safe to retry, 0 means the object must not exist yet.
+	 */
+	private static Long ifGenerationMatch(Config config)
+	{
+		if (!config.has("ifGenerationMatch")) return null;
+		return ((Number) config.get("ifGenerationMatch")).longValue();
+	}
+
+	private static Long ifMetagenerationMatch(Config config)
+	{
+		if (!config.has("ifMetagenerationMatch")) return null;
+		return ((Number) config.get("ifMetagenerationMatch")).longValue();
+	}
+
+	private static String predefinedAcl(Config config)
+	{
+		if (!config.has("visibility")) return null;
+		return config.get("visibility") == Visibility.PUBLIC ? "publicRead" : "private";
+	}
+
+	public boolean update(String path, String contents)
+	{
+		return false;
+	}
+
+	public boolean update(String path, String contents, Config config)
+	{
+		return false;
+	}
+
+	/**
+	 * Rewrites the current generation of the object to a path that must not exist yet, then deletes that generation.
+	 * @throws FlysystemGenericException when the object was overwritten during the rename, it is copied but not deleted then.
+	 */
+	public boolean rename(String from, String to) throws FileExistsException, FileNotFoundException
+	{
+		long started = started(Operation.RENAME);
+		boolean success = false;
+		try {
+			boolean result = move(from, to);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.RENAME, started, success);
+		}
+	}
+
+	private boolean move(String from, String to)
+	{
+		Long generation = getObject(from, false).getGeneration();
+		StorageObject renamed;
+		try {
+			renamed = rewrite(from, generation, to, 0L, null);
+		} catch (IOException e) {
+			if (isPreconditionFailure(e)) throw new FileExistsException(to);
+			throw translate(from, e);
+		}
+		notifyChanged(to, renamed);
+		try {
+			client.objects().delete(bucketName, from).setIfGenerationMatch(generation).execute();
+		} catch (IOException e) {
+			if (isPreconditionFailure(e)) throw new FlysystemGenericException(from + " was overwritten during the rename to " + to + " and has not been deleted.");
+			if (!(translate(from, e) instanceof FileNotFoundException)) throw new FlysystemGenericException(e);
+		}
+		notifyRemoved(from);
+		return true;
+	}
+
+	/**
+	 * Copies with objects.rewrite, which unlike objects.copy does not time out on large objects
+	 * or on copies between locations and storage classes.
+	 */
+	public boolean copy(String path, String newpath)
+	{
+		return copy(path, newpath, new Config());
+	}
+
+	/**
+	 * @param config "ifGenerationMatch" and "ifMetagenerationMatch" are preconditions on the destination,
+	 *               a {@link PreconditionFailedException} is thrown when they do not hold.
+	 */
+	public boolean copy(String path, String newpath, Config config)
+	{
+		long started = started(Operation.COPY);
+		boolean success = false;
+		try {
+			boolean result = rewriteTo(path, newpath, config);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.COPY, started, success);
+		}
+	}
+
+	private boolean rewriteTo(String path, String newpath, Config config)
+	{
+		try {
+			notifyChanged(newpath, rewrite(path, null, newpath, ifGenerationMatch(config), ifMetagenerationMatch(config)));
+			return true;
+		} catch (IOException e) {
+			if (isPreconditionFailure(e)) throw new PreconditionFailedException("Precondition failed for " + newpath);
+			throw translate(path, e);
+		}
+	}
+
+	/**
+	 * Copies every object under a directory to another directory, a number of objects at a time.
+	 * @return per source path whether it was copied.
+	 */
+	public BatchResult<Boolean> copyPrefix(String from, String to)
+	{
+		return rewritePrefix(from, to, false);
+	}
+
+	/**
+	 * Renames every object under a directory into another directory, a number of objects at a time.
+	 * Renaming onto existing objects fails with a {@link FileExistsException} for those objects.
+	 * @return per source path whether it was renamed.
+	 */
+	public BatchResult<Boolean> renamePrefix(String from, String to)
+	{
+		return rewritePrefix(from, to, true);
+	}
+
+	private BatchResult<Boolean> rewritePrefix(String from, String to, final boolean rename)
+	{
+		final String source = toPrefix(from);
+		final String target = toPrefix(to);
+		if (source.isEmpty()) throw new RootViolationException("Refusing to rewrite the root of bucket " + bucketName);
+		final BatchResult<Boolean> result = new BatchResult<>();
+		List<Callable<Void>> rewrites = new ArrayList<>();
+		for (final String name : listNames(source)) {
+			rewrites.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					String destination = target + name.substring(source.length());
+					try {
+						result.success(name, rename ? rename(name, destination) : copy(name, destination));
+					} catch (FlysystemGenericException e) {
+						result.failure(name, e);
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			ParallelTasks.invokeAll(executor, rewrites, rewriteParallelism);
+		} catch (IOException e) {
+			throw new FlysystemGenericException(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Loops on the rewrite token until GCS reports the rewrite as done.
+	 * @param sourceGeneration the generation to copy, or null for the current one.
+	 * @param ifGenerationMatch a precondition on the destination, 0 requires it to not exist, or null for none.
+	 * @param ifMetagenerationMatch a precondition on the destination, or null for none.
+	 */
+	private StorageObject rewrite(String from, Long sourceGeneration, String to, Long ifGenerationMatch, Long ifMetagenerationMatch) throws IOException
+	{
+		Storage.Objects.Rewrite rewrite = client.objects().rewrite(bucketName, from, bucketName, to, new StorageObject())
+				.setFields("done,rewriteToken,resource(" + OBJECT_FIELDS + ")");
+		if (sourceGeneration != null) rewrite.setSourceGeneration(sourceGeneration);
+		if (ifGenerationMatch != null) rewrite.setIfGenerationMatch(ifGenerationMatch);
+		if (ifMetagenerationMatch != null) rewrite.setIfMetagenerationMatch(ifMetagenerationMatch);
+		if (maxBytesRewrittenPerCall != null) rewrite.setMaxBytesRewrittenPerCall(maxBytesRewrittenPerCall);
+		RewriteResponse response = rewrite.execute();
+		while (!Boolean.TRUE.equals(response.getDone())) {
+			response = rewrite.setRewriteToken(response.getRewriteToken()).execute();
+		}
+		return response.getResource();
+	}
+
+	private static boolean isPreconditionFailure(IOException e)
+	{
+		return e instanceof HttpResponseException && ((HttpResponseException) e).getStatusCode() == STATUS_CODE_PRECONDITION_FAILED;
+	}
+
+	public boolean delete(String path)
+	{
+		return delete(path, new Config());
+	}
+
+	/**
+	 * @param config "ifGenerationMatch" and "ifMetagenerationMatch" are preconditions on the object,
+	 *               a {@link PreconditionFailedException} is thrown when they do not hold.
+	 */
+	public boolean delete(String path, Config config)
+	{
+		long started = started(Operation.DELETE);
+		boolean success = false;
+		try {
+			boolean result = remove(path, config);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.DELETE, started, success);
+		}
+	}
+
+	private boolean remove(String path, Config config)
+	{
+		try {
+			Storage.Objects.Delete delete = client.objects().delete(bucketName, path);
+			Long ifGenerationMatch = ifGenerationMatch(config);
+			if (ifGenerationMatch != null) delete.setIfGenerationMatch(ifGenerationMatch);
+			Long ifMetagenerationMatch = ifMetagenerationMatch(config);
+			if (ifMetagenerationMatch != null) delete.setIfMetagenerationMatch(ifMetagenerationMatch);
+			delete.execute();
+		} catch (IOException e) {
+			throw failedWrite(path, e);
+		}
+		notifyRemoved(path);
+		return true;
+	}
+
+	/**
+	 * Deletes every object under the directory, including its placeholder object, in batches.
+	 * @return false if some objects could not be deleted.
+	 */
+	public boolean deleteDir(String dirname)
+	{
+		long started = started(Operation.DELETE_DIR);
+		boolean success = false;
+		try {
+			boolean result = removeDir(dirname);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.DELETE_DIR, started, success);
+		}
+	}
+
+	private boolean removeDir(String dirname)
+	{
+		String prefix = toPrefix(dirname);
+		if (prefix.isEmpty()) throw new RootViolationException("Refusing to delete the root of bucket " + bucketName);
+		List<String> paths = listNames(prefix);
+		paths.add(prefix);
+		// objects that are already gone count as deleted
+		for (FlysystemGenericException error : removeAll(paths).getErrors().values()) {
+			if (!(error instanceof FileNotFoundException)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes the objects with batch requests of up to 100 deletes each.
+	 */
+	public BatchResult<Boolean> deleteAll(Collection<String> paths)
+	{
+		long started = started(Operation.BATCH);
+		boolean success = false;
+		try {
+			BatchResult<Boolean> result = removeAll(paths);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.BATCH, started, success);
+		}
+	}
+
+	private BatchResult<Boolean> removeAll(Collection<String> paths)
+	{
+		BatchResult<Boolean> result = batchRunner().execute(paths, new BatchRunner.Operation<Void, Boolean>()
+		{
+			public Storage.Objects.Delete request(String path) throws IOException
+			{
+				return client.objects().delete(bucketName, path);
+			}
+
+			public Boolean onSuccess(String path, Void response)
+			{
+				return true;
+			}
+
+			public Boolean onFailure(String path, GoogleJsonError error)
+			{
+				return null;
+			}
+		});
+		for (String path : result.getResults().keySet()) notifyRemoved(path);
+		for (Map.Entry<String, FlysystemGenericException> error : result.getErrors().entrySet()) {
+			if (error.getValue() instanceof FileNotFoundException) notifyRemoved(error.getKey());
+		}
+		return result;
+	}
+
+	/**
+	 * Fetches the metadata of the objects with batch requests of up to 100 gets each.
+	 */
+	public BatchResult<FileMetadata> getMetadata(Collection<String> paths)
+	{
+		long started = started(Operation.BATCH);
+		boolean success = false;
+		try {
+			BatchResult<FileMetadata> result = metadata(paths);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.BATCH, started, success);
+		}
+	}
+
+	private BatchResult<FileMetadata> metadata(Collection<String> paths)
+	{
+		final StorageObjectConverter converter = new StorageObjectConverter();
+		return batchRunner().execute(paths, new BatchRunner.Operation<StorageObject, FileMetadata>()
+		{
+			public Storage.Objects.Get request(String path) throws IOException
+			{
+				return client.objects().get(bucketName, path).setFields(METADATA_FIELDS).setProjection("full");
+			}
+
+			public FileMetadata onSuccess(String path, StorageObject response)
+			{
+				return converter.convert(response);
+			}
+
+			public FileMetadata onFailure(String path, GoogleJsonError error)
+			{
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Checks the existence of the objects with batch requests of up to 100 gets each.
+	 */
+	public BatchResult<Boolean> hasAll(Collection<String> paths)
+	{
+		long started = started(Operation.BATCH);
+		boolean success = false;
+		try {
+			BatchResult<Boolean> result = existAll(paths);
+			success = true;
+			return result;
+		} finally {
+			finished(Operation.BATCH, started, success);
+		}
+	}
+
+	private BatchResult<Boolean> existAll(Collection<String> paths)
+	{
+		return batchRunner().execute(paths, new BatchRunner.Operation<StorageObject, Boolean>()
+		{
+			public Storage.Objects.Get request(String path) throws IOException
+			{
+				return client.objects().get(bucketName, path).setFields("name");
+			}
+
+			public Boolean onSuccess(String path, StorageObject response)
+			{
+				return true;
+			}
+
+			public Boolean onFailure(String path, GoogleJsonError error)
+			{
+				return error.getCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND ? false : null;
+			}
+		});
+	}
+
+	private BatchRunner batchRunner()
+	{
+		return new BatchRunner(client, executor, BATCH_PARALLELISM, retryPolicy);
+	}
+
+	public boolean createDir(String dirname, Config config)
+	{
+		return false;
+	}
+
+	public boolean createDir(String dirname)
+	{
+		return false;
+	}
+
+	public boolean setVisibility(String path, Visibility visibility)
+	{
+		return false;
+	}
+
+	private Bucket getBucket()
+	{
+		try {
+			Bucket execute = client.buckets().get(bucketName).execute();
+			return execute;
+		} catch (IOException e) {
+			throw new FlysystemGenericException(e);
+		}
+	}
+
+	private final ObjectLister lister = new ObjectLister()
+	{
+		public Objects list(String prefix, boolean recursive, String pageToken) throws IOException
+		{
+			Storage.Objects.List list = client.objects().list(bucketName);
+			if (!prefix.isEmpty()) list.setPrefix(prefix);
+			if (!recursive) list.setDelimiter(DELIMITER);
+			if (pageToken != null) list.setPageToken(pageToken);
+			list.setFields(LIST_FIELDS);
+			return list.execute();
+		}
+	};
+
+	/**
+	 * Writes and deletes are applied to the index from the moment it is created, so none are missed during the listing.
+	 */
+	private void populateExistenceIndex()
+	{
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				try {
+					existence.populate(listNames(existence.getIndexPrefix()));
+				} catch (FlysystemGenericException e) {
+					logger.warning("Could not build the existence index, has() keeps asking GCS: " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * The names of all objects under the prefix, as stored. Unlike {@link #iterateContents(String, boolean)}
+	 * this keeps the trailing slash of directory placeholder objects.
+	 */
+	private List<String> listNames(String prefix)
+	{
+		List<String> names = new ArrayList<>();
+		String pageToken = null;
+		try {
+			do {
+				Objects page = lister.list(prefix, true, pageToken);
+				if (page.getItems() != null) {
+					for (StorageObject object : page.getItems()) {
+						if (!object.getName().equals(prefix)) names.add(object.getName());
+					}
+				}
+				pageToken = page.getNextPageToken();
+			} while (pageToken != null);
+		} catch (IOException e) {
+			throw new FlysystemGenericException(e);
+		}
+		return names;
+	}
+
+	/**
+	 * Turns a directory name into a listing prefix, e.g. "foo" and "/foo/" both become "foo/" and "" stays "".
+	 */
+	static String toPrefix(String directory)
+	{
+		if (directory == null) return "";
+		String prefix = directory;
+		while (prefix.startsWith(DELIMITER)) prefix = prefix.substring(1);
+		if (!prefix.isEmpty() && !prefix.endsWith(DELIMITER)) prefix += DELIMITER;
+		return prefix;
+	}
+
+	/**
+	 * Feeds the disk cache, downloads are pinned to the generation the cache validated.
+	 */
+	private final DiskContentCache.Source contentSource = new DiskContentCache.Source()
+	{
+		public StorageObject getObject(String path)
+		{
+			return GCSAdapter.this.getObject(path);
+		}
+
+		public void download(String path, long generation, OutputStream out) throws IOException
+		{
+			try (InputStream content = media(client.objects().get(bucketName, path).setGeneration(generation), path)) {
+				IOUtils.copyLarge(content, out, new byte[BUFFER_SIZE]);
+			}
+		}
+	};
+
+	/**
+	 * The contents of a media response, verified against the checksum GCS sent along when that is enabled.
+	 * Gzip encoded contents are decompressed by the client, while their checksum is that of the compressed bytes.
+	 */
+	private InputStream media(Storage.Objects.Get get, String path) throws IOException
+	{
+		InputStream content = get.executeMediaAsInputStream();
+		HttpHeaders headers = get.getLastResponseHeaders();
+		if (!verifyChecksums || headers == null || headers.getContentEncoding() != null) return content;
+		return checksums.verifying(content, headers, path);
+	}
+
+	/**
+	 * @return the recorder set on the builder, by default {@link MetricsRecorder#NOOP}.
+	 */
+	public MetricsRecorder getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Unregisters the MXBeans of {@link Builder#setJmxMetrics(boolean)} and shuts down the connection pool and executors
+	 * the builder created. A client, context, transport or executor that was set is left alone, it may be shared with others.
+	 * The adapter can't be used afterwards.
+	 */
+	public void close()
+	{
+		if (registeredMetrics != null) registeredMetrics.unregister();
+		if (ownedTransport != null) ownedTransport.shutdown();
+		if (ownedExecutor != null) ownedExecutor.shutdownNow();
+		if (hedgedRequests != null) hedgedRequests.shutdown();
+	}
+
+	Checksums getChecksums()
+	{
+		return checksums;
+	}
+
+	DiskContentCache getContentCache()
+	{
+		return contentCache;
+	}
+
+	ExistenceCache getExistenceCache()
+	{
+		return existence;
+	}
+
+	void addChangeListener(ObjectChangeListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	private void notifyChanged(String path, StorageObject object)
+	{
+		for (ObjectChangeListener listener : listeners) {
+			listener.changed(path, object);
+		}
+	}
+
+	private void notifyRemoved(String path)
+	{
+		for (ObjectChangeListener listener : listeners) {
+			listener.removed(path);
+		}
+	}
+
+	private StorageObject getObject(String path)
+	{
+		return getObject(path, false);
+	}
+
+	/**
+	 * @param withAcl the acl is needed to determine the visibility, but requires the "full" projection.
+	 */
+	StorageObject getObject(final String path, final boolean withAcl)
+	{
+		try {
+			return hedged(new Callable<StorageObject>()
+			{
+				public StorageObject call() throws IOException
+				{
+					// a request is not thread safe, so a hedge builds its own
+					Storage.Objects.Get get = client.objects().get(bucketName, path);
+					get.setFields(withAcl ? METADATA_FIELDS : OBJECT_FIELDS);
+					if (withAcl) get.setProjection("full");
+					return get.execute();
+				}
+			});
+		} catch (IOException e) {
+			throw translate(path, e);
+		}
+	}
+
+	private long started(Operation operation)
+	{
+		metrics.operationStarted(operation);
+		return System.nanoTime();
+	}
+
+	private void finished(Operation operation, long started, boolean success)
+	{
+		metrics.operationFinished(operation, System.nanoTime() - started, success);
+	}
+
+	/**
+	 * Runs a small idempotent lookup, hedged when enabled on the builder.
+	 */
+	private <T> T hedged(Callable<T> read) throws IOException
+	{
+		if (hedgedRequests != null) return hedgedRequests.call(read);
+		try {
+			return read.call();
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * A missing object is only reported as such by reads, for writes a 404 means something else, e.g. a missing bucket.
+	 */
+	private static FlysystemGenericException failedWrite(String path, IOException e)
+	{
+		if (isPreconditionFailure(e)) return new PreconditionFailedException("Precondition failed for " + path);
+		return new FlysystemGenericException(e);
+	}
+
+	private static FlysystemGenericException translate(String path, IOException e)
+	{
+		if (e instanceof HttpResponseException && ((HttpResponseException) e).getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+			return new FileNotFoundException(path);
 		}
+		return new FlysystemGenericException(e);
 	}
 }
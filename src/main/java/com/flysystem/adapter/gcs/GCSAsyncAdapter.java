@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.Config;
+import com.flysystem.core.FileMetadata;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking variant of the {@link GCSAdapter} operations, each returning a {@link ListenableFuture}.
+ * Calls never block the caller: operations wait in a queue until one of the {@code maxInFlight} permits is free
+ * and then run on the executor, so a handful of threads can issue hundreds of operations. Once {@code maxQueued}
+ * operations are waiting, new ones fail with a {@link RejectedExecutionException} rather than piling up in memory.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class GCSAsyncAdapter implements Closeable
+{
+	public final static int DEFAULT_MAX_IN_FLIGHT = 256;
+	public final static int DEFAULT_MAX_QUEUED = 10000;
+
+	private final GCSAdapter adapter;
+	private final ListeningExecutorService executor;
+	private final ExecutorService ownedExecutor;
+	private final Semaphore permits;
+	private final BlockingQueue<Task<?>> pending;
+
+	/**
+	 * Runs on virtual threads when available (JDK 21+), on a cached pool of daemon threads otherwise.
+	 * That executor is shut down by {@link #close()}.
+	 */
+	public GCSAsyncAdapter(GCSAdapter adapter)
+	{
+		this(adapter, defaultExecutor(), true, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_QUEUED);
+	}
+
+	/**
+	 * @param executor    runs the blocking calls, it is not shut down by this adapter.
+	 * @param maxInFlight the maximum number of operations running at the same time.
+	 */
+	public GCSAsyncAdapter(GCSAdapter adapter, ExecutorService executor, int maxInFlight)
+	{
+		this(adapter, executor, maxInFlight, DEFAULT_MAX_QUEUED);
+	}
+
+	/**
+	 * @param executor    runs the blocking calls, it is not shut down by this adapter.
+	 * @param maxInFlight the maximum number of operations running at the same time.
+	 * @param maxQueued   the maximum number of operations waiting for a permit.
+	 */
+	public GCSAsyncAdapter(GCSAdapter adapter, ExecutorService executor, int maxInFlight, int maxQueued)
+	{
+		this(adapter, executor, false, maxInFlight, maxQueued);
+	}
+
+	private GCSAsyncAdapter(GCSAdapter adapter, ExecutorService executor, boolean owned, int maxInFlight, int maxQueued)
+	{
+		if (maxInFlight < 1) throw new IllegalArgumentException("The maximum number of operations in flight has to be positive.");
+		if (maxQueued < 1) throw new IllegalArgumentException("The maximum number of queued operations has to be positive.");
+		this.adapter = adapter;
+		this.executor = MoreExecutors.listeningDecorator(executor);
+		this.ownedExecutor = owned ? executor : null;
+		this.permits = new Semaphore(maxInFlight);
+		this.pending = new ArrayBlockingQueue<>(maxQueued);
+	}
+
+	public ListenableFuture<Boolean> has(final String path)
+	{
+		return submit(new Callable<Boolean>()
+		{
+			public Boolean call()
+			{
+				return adapter.has(path);
+			}
+		});
+	}
+
+	public ListenableFuture<String> read(final String path)
+	{
+		return submit(new Callable<String>()
+		{
+			public String call()
+			{
+				return adapter.read(path);
+			}
+		});
+	}
+
+	public ListenableFuture<Boolean> write(final String path, final String contents, final Config config)
+	{
+		return submit(new Callable<Boolean>()
+		{
+			public Boolean call()
+			{
+				return adapter.write(path, contents, config);
+			}
+		});
+	}
+
+	public ListenableFuture<Boolean> write(String path, String contents)
+	{
+		return write(path, contents, new Config());
+	}
+
+	public ListenableFuture<Boolean> copy(final String path, final String newpath)
+	{
+		return submit(new Callable<Boolean>()
+		{
+			public Boolean call()
+			{
+				return adapter.copy(path, newpath);
+			}
+		});
+	}
+
+	public ListenableFuture<Boolean> rename(final String from, final String to)
+	{
+		return submit(new Callable<Boolean>()
+		{
+			public Boolean call()
+			{
+				return adapter.rename(from, to);
+			}
+		});
+	}
+
+	public ListenableFuture<Boolean> delete(final String path)
+	{
+		return submit(new Callable<Boolean>()
+		{
+			public Boolean call()
+			{
+				return adapter.delete(path);
+			}
+		});
+	}
+
+	public ListenableFuture<FileMetadata> getMetadata(final String path)
+	{
+		return submit(new Callable<FileMetadata>()
+		{
+			public FileMetadata call()
+			{
+				return adapter.getMetadata(path);
+			}
+		});
+	}
+
+	public ListenableFuture<List<FileMetadata>> listContents(final String directory, final boolean recursive)
+	{
+		return submit(new Callable<List<FileMetadata>>()
+		{
+			public List<FileMetadata> call()
+			{
+				return adapter.listContents(directory, recursive);
+			}
+		});
+	}
+
+	/**
+	 * The number of operations that are queued and not running yet.
+	 */
+	public int queued()
+	{
+		return pending.size();
+	}
+
+	/**
+	 * Cancels the queued operations and shuts down the executor if this adapter created it.
+	 * Operations that are running are left to finish.
+	 */
+	public void close()
+	{
+		for (Task<?> task = pending.poll(); task != null; task = pending.poll()) task.future.cancel(false);
+		if (ownedExecutor != null) ownedExecutor.shutdown();
+	}
+
+	private <T> ListenableFuture<T> submit(Callable<T> operation)
+	{
+		Task<T> task = new Task<>(operation);
+		if (!pending.offer(task)) {
+			return Futures.immediateFailedFuture(new RejectedExecutionException("Already " + pending.size() + " operations are queued."));
+		}
+		dispatch();
+		return task.future;
+	}
+
+	/**
+	 * Starts queued operations while permits are free. Called after every submit and every completion,
+	 * so an operation is never left waiting while a permit is free.
+	 */
+	private void dispatch()
+	{
+		while (!pending.isEmpty() && permits.tryAcquire()) {
+			Task<?> task = pending.poll();
+			if (task == null) {
+				permits.release();
+				continue;
+			}
+			task.dispatched();
+			try {
+				executor.execute(task.future);
+			} catch (RejectedExecutionException e) {
+				task.future.cancel(false);
+			}
+		}
+	}
+
+	private void release()
+	{
+		permits.release();
+		dispatch();
+	}
+
+	/**
+	 * An operation that holds a permit from its dispatch until it returns. Cancelling a running operation completes its
+	 * future right away, so the permit is released by the operation itself, or by the future when it never ran.
+	 */
+	private class Task<T> implements Callable<T>
+	{
+		private final Callable<T> operation;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		final ListenableFutureTask<T> future;
+
+		Task(Callable<T> operation)
+		{
+			this.operation = operation;
+			this.future = ListenableFutureTask.create(this);
+		}
+
+		public T call() throws Exception
+		{
+			// cancelled between starting and getting here, the future already gave the permit back
+			if (!claimed.compareAndSet(false, true)) return null;
+			try {
+				return operation.call();
+			} finally {
+				release();
+			}
+		}
+
+		void dispatched()
+		{
+			future.addListener(new Runnable()
+			{
+				public void run()
+				{
+					if (claimed.compareAndSet(false, true)) release();
+				}
+			}, MoreExecutors.directExecutor());
+		}
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor is looked up reflectively, as this library targets Java 7.
+	 */
+	private static ExecutorService defaultExecutor()
+	{
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("gcs-async-%d").build());
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.exception.GCSConnectionException;
+import com.flysystem.adapter.gcs.interceptor.InterceptorChain;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.metrics.MetricsRecorder;
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.StorageScopes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One transport, one service account credential and one Storage client, to be shared by any number of adapters
+ * with {@link GCSAdapter.Builder#setClientContext(GCSClientContext)}, e.g. one adapter per bucket.
+ * The access token is fetched when the context is built and refreshed in the background ahead of its expiry,
+ * so adapters never wait for a token on the request path.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class GCSClientContext implements Closeable
+{
+	private final static Logger logger = Logger.getLogger(GCSClientContext.class.getName());
+	final static long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	private JsonFactory jsonFactory;
+	private HttpTransport httpTransport;
+	private ApacheHttpTransport ownedTransport;
+	private String applicationName;
+	private String serviceAccountEmail;
+	private File p12Key;
+	private int connectTimeoutMillis = 20 * 1000;
+	private int readTimeoutMillis = 20 * 1000;
+	private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+	private MetricsRecorder metrics = MetricsRecorder.NOOP;
+	private final List<RequestInterceptor> interceptors = new ArrayList<>();
+	private long refreshMarginMillis = TimeUnit.MINUTES.toMillis(5);
+
+	private Credential credential;
+	private Storage client;
+	private ScheduledExecutorService refresher;
+
+	private GCSClientContext(){}
+
+	public static class Builder {
+		GCSClientContext context;
+
+		public Builder()
+		{
+			context = new GCSClientContext();
+		}
+
+		public Builder setJsonFactory(JsonFactory factory) {
+			context.jsonFactory = factory;
+			return this;
+		}
+		public Builder setHttpTransport(HttpTransport httpTransport) {
+			context.httpTransport = httpTransport;
+			return this;
+		}
+		public Builder setApplicationName(String applicationName) {
+			context.applicationName = applicationName;
+			return this;
+		}
+		public Builder setServiceAccountEmail(String serviceAccountEmail) {
+			context.serviceAccountEmail = serviceAccountEmail;
+			return this;
+		}
+		public Builder setP12Key(File key) {
+			context.p12Key = key;
+			return this;
+		}
+
+		/**
+		 * @see GCSAdapter.Builder#setTimeouts(int, int)
+		 */
+		public Builder setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+			if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) throw new IllegalArgumentException("Timeouts can not be negative.");
+			context.connectTimeoutMillis = connectTimeoutMillis;
+			context.readTimeoutMillis = readTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * @see GCSAdapter.Builder#setRetryPolicy(RetryPolicy)
+		 */
+		public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+			context.retryPolicy = retryPolicy;
+			return this;
+		}
+
+		/**
+		 * Receives the requests, responses and retries of every adapter using this context. Adapters time their
+		 * operations with the recorder set on their own builder. Defaults to recording nothing.
+		 * @param metrics
+		 * @return GCSClientContext.Builder
+		 */
+		public Builder setMetrics(MetricsRecorder metrics) {
+			context.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * @see GCSAdapter.Builder#addInterceptor(RequestInterceptor)
+		 */
+		public Builder addInterceptor(RequestInterceptor interceptor) {
+			context.interceptors.add(interceptor);
+			return this;
+		}
+
+		/**
+		 * How long before its expiry the access token is refreshed, defaults to 5 minutes.
+		 * The credential itself refreshes on the request path during the last minute, so keep this above a minute.
+		 * @param margin
+		 * @param unit
+		 * @return GCSClientContext.Builder
+		 */
+		public Builder setTokenRefreshMargin(long margin, TimeUnit unit) {
+			if (margin < 0) throw new IllegalArgumentException("The refresh margin can not be negative.");
+			context.refreshMarginMillis = unit.toMillis(margin);
+			return this;
+		}
+
+		/**
+		 * Creates the transport and credential and fetches the first access token.
+		 */
+		public GCSClientContext build()
+		{
+			if (context.serviceAccountEmail == null) throw new GCSConnectionException("Service account email has to be provided.");
+			if (context.p12Key == null) throw new GCSConnectionException("A .p12 key has to be provided.");
+			if (context.applicationName == null) logger.warning("You didn't set your Application name. GCS will log warning messages because of this! Suggested format is \"MyCompany-ProductName/1.0\".");
+			try {
+				if (context.httpTransport == null) context.httpTransport = context.ownedTransport = new PooledTransport().build();
+				if (context.jsonFactory == null) context.jsonFactory = JacksonFactory.getDefaultInstance();
+				context.credential = new GoogleCredential.Builder().setTransport(context.httpTransport)
+						.setJsonFactory(context.jsonFactory)
+						.setServiceAccountId(context.serviceAccountEmail)
+						.setServiceAccountScopes(Collections.singleton(StorageScopes.DEVSTORAGE_FULL_CONTROL))
+						.setServiceAccountPrivateKeyFromP12File(context.p12Key)
+						.build();
+			} catch (GeneralSecurityException | IOException e) {
+				throw new FlysystemGenericException(e);
+			}
+			context.client = new Storage.Builder(context.httpTransport, context.jsonFactory,
+					new GCSRequestInitializer(context.credential, context.connectTimeoutMillis, context.readTimeoutMillis, context.retryPolicy,
+							context.metrics, new InterceptorChain(context.interceptors)))
+					.setApplicationName(context.applicationName).build();
+			context.refresher = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("gcs-token-refresher-%d").build());
+			context.refresh();
+			return context;
+		}
+	}
+
+	Storage getClient()
+	{
+		return client;
+	}
+
+	/**
+	 * Refreshes the token and schedules the next refresh, or a retry when it failed.
+	 * The credential still refreshes on the request path as a last resort when the token expired regardless.
+	 */
+	private void refresh()
+	{
+		long delay = RETRY_DELAY_MILLIS;
+		try {
+			if (credential.refreshToken() && credential.getExpiresInSeconds() != null) {
+				delay = Math.max(TimeUnit.SECONDS.toMillis(credential.getExpiresInSeconds()) - refreshMarginMillis, RETRY_DELAY_MILLIS / 5);
+			}
+		} catch (IOException | RuntimeException e) {
+			// anything escaping would end the chain of scheduled refreshes for good
+			logger.log(Level.WARNING, "Could not refresh the access token, retrying in " + RETRY_DELAY_MILLIS + " ms", e);
+		}
+		try {
+			refresher.schedule(new Runnable()
+			{
+				public void run()
+				{
+					refresh();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Stops refreshing the access token and shuts down the connection pool the builder created. A transport that was
+	 * set is left alone, it may be shared with others. Adapters using this context can't be used afterwards.
+	 */
+	public void close()
+	{
+		refresher.shutdownNow();
+		if (ownedTransport != null) ownedTransport.shutdown();
+	}
+}
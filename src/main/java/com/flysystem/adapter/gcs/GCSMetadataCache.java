@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.FileMetadata;
+import com.flysystem.core.Visibility;
+import com.flysystem.core.cache.Cache;
+import com.flysystem.core.exception.FileNotFoundException;
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, in memory metadata cache for a {@link GCSAdapter}, to be used with {@link com.flysystem.core.cache.CachedAdapter}.
+ * Lookups read through to GCS (one projected GET per miss, misses are cached as well) and every entry
+ * remembers the generation and metageneration it describes. The acl, which takes the "full" projection and with it
+ * OWNER permission, is only fetched for the visibility. Known misses throw a {@link FileNotFoundException},
+ * as the adapter does, instead of handing the lookup back to it. Writes and copies done by the
+ * adapter only evict entries that describe an older generation than the one GCS reported, deletes evict the entry.
+ * File contents are not cached.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class GCSMetadataCache implements Cache, ObjectChangeListener
+{
+	private final GCSAdapter adapter;
+	private final com.google.common.cache.Cache<String, CachedObject> cache;
+
+	/**
+	 * @param maximumSize the maximum number of entries, least recently used entries are evicted first.
+	 * @param ttl         how long an entry is trusted after it was loaded.
+	 */
+	public GCSMetadataCache(GCSAdapter adapter, long maximumSize, long ttl, TimeUnit unit)
+	{
+		this.adapter = adapter;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttl, unit)
+				.recordStats()
+				.build();
+		adapter.addChangeListener(this);
+	}
+
+	public CacheStats stats()
+	{
+		return cache.stats();
+	}
+
+	public double hitRate()
+	{
+		return cache.stats().hitRate();
+	}
+
+	public long size()
+	{
+		return cache.size();
+	}
+
+	private CachedObject load(final String path)
+	{
+		try {
+			return cache.get(path, new Callable<CachedObject>()
+			{
+				public CachedObject call()
+				{
+					try {
+						return CachedObject.of(adapter.getObject(path, false), false);
+					} catch (FileNotFoundException e) {
+						return CachedObject.MISSING;
+					}
+				}
+			});
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new FlysystemGenericException(e.getCause());
+		}
+	}
+
+	/**
+	 * @throws FileNotFoundException for a known miss.
+	 */
+	private FileMetadata metadata(String path)
+	{
+		FileMetadata metadata = load(path).metadata;
+		if (metadata == null) throw new FileNotFoundException(path);
+		return metadata;
+	}
+
+	/**
+	 * Replaces an entry loaded without acl by one that has it.
+	 */
+	private FileMetadata withVisibility(String path)
+	{
+		FileMetadata metadata = metadata(path);
+		if (metadata.getVisibility() != null || !metadata.isFile()) return metadata;
+		try {
+			CachedObject loaded = CachedObject.of(adapter.getObject(path, true), true);
+			cache.put(path, loaded);
+			return loaded.metadata;
+		} catch (FileNotFoundException e) {
+			cache.put(path, CachedObject.MISSING);
+			throw e;
+		}
+	}
+
+	public boolean has(String path)
+	{
+		return load(path).metadata != null;
+	}
+
+	public String read(String path)
+	{
+		return null;
+	}
+
+	public List<FileMetadata> listContents(String directory, boolean recursive)
+	{
+		return Collections.emptyList();
+	}
+
+	public FileMetadata getMetadata(String path)
+	{
+		return withVisibility(path);
+	}
+
+	public Long getSize(String path)
+	{
+		return metadata(path).getSize();
+	}
+
+	public String getMimetype(String path)
+	{
+		return metadata(path).getMimetype();
+	}
+
+	public Long getTimestamp(String path)
+	{
+		return metadata(path).getTimestamp();
+	}
+
+	public Visibility getVisibility(String path)
+	{
+		return withVisibility(path).getVisibility();
+	}
+
+	public boolean isComplete(String dirname, boolean recursive)
+	{
+		return false;
+	}
+
+	public void setComplete(String dirname, boolean recursive)
+	{
+	}
+
+	public void storeContents(String directory, List<FileMetadata> contents, boolean recursive)
+	{
+	}
+
+	public void flush()
+	{
+		cache.invalidateAll();
+	}
+
+	public void autosave()
+	{
+	}
+
+	public void save()
+	{
+	}
+
+	public void load()
+	{
+	}
+
+	/**
+	 * The new generation of {@code to} has already been reported by the adapter through {@link #changed(String, StorageObject)}.
+	 */
+	public void rename(String from, String to)
+	{
+		removed(from);
+	}
+
+	/**
+	 * The new generation of {@code to} has already been reported by the adapter through {@link #changed(String, StorageObject)}.
+	 */
+	public void copy(String from, String to)
+	{
+	}
+
+	public void delete(String path)
+	{
+		removed(path);
+	}
+
+	public void deleteDir(String dirname)
+	{
+		String prefix = GCSAdapter.toPrefix(dirname);
+		for (String path : cache.asMap().keySet()) {
+			if (path.startsWith(prefix)) cache.invalidate(path);
+		}
+	}
+
+	/**
+	 * Metadata handed in by {@link com.flysystem.core.cache.CachedAdapter} is kept; other values (such as written contents)
+	 * have already been accounted for by the adapter through {@link #changed(String, StorageObject)}.
+	 */
+	public void updateObject(String path, Object object, boolean autosave)
+	{
+		if (object instanceof FileMetadata) cache.put(path, new CachedObject((FileMetadata) object, null, null));
+	}
+
+	public void updateObject(String path, Object object)
+	{
+		updateObject(path, object, false);
+	}
+
+	public void storeMiss(String path)
+	{
+		cache.put(path, CachedObject.MISSING);
+	}
+
+	public void changed(String path, StorageObject object)
+	{
+		CachedObject cached = cache.getIfPresent(path);
+		if (cached != null && !cached.isAtLeast(object)) cache.invalidate(path);
+	}
+
+	/**
+	 * Only evicts: a deleted directory would otherwise fill the cache with misses and push out the entries in use.
+	 * A miss is cached once a lookup is answered with a 404.
+	 */
+	public void removed(String path)
+	{
+		cache.invalidate(path);
+	}
+
+	private static class CachedObject
+	{
+		static final CachedObject MISSING = new CachedObject(null, null, null);
+
+		final FileMetadata metadata;
+		final Long generation;
+		final Long metageneration;
+
+		CachedObject(FileMetadata metadata, Long generation, Long metageneration)
+		{
+			this.metadata = metadata;
+			this.generation = generation;
+			this.metageneration = metageneration;
+		}
+
+		/**
+		 * @param withAcl without the acl the visibility is unknown, and left null.
+		 */
+		static CachedObject of(StorageObject object, boolean withAcl)
+		{
+			FileMetadata metadata = new StorageObjectConverter().convert(object);
+			if (!withAcl) metadata.setVisibility(null);
+			return new CachedObject(metadata, object.getGeneration(), object.getMetageneration());
+		}
+
+		/**
+		 * Whether this entry already describes the given (or a later) state of the object.
+		 */
+		boolean isAtLeast(StorageObject object)
+		{
+			if (generation == null || object.getGeneration() == null) return false;
+			int compared = generation.compareTo(object.getGeneration());
+			if (compared != 0) return compared > 0;
+			return metageneration != null && object.getMetageneration() != null && metageneration >= object.getMetageneration();
+		}
+	}
+}
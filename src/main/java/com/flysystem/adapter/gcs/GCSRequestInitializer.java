@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.interceptor.InterceptorChain;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.metrics.MetricsRecorder;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Initializes every request of the Storage client built by {@link GCSAdapter.Builder}.
+ * Requests are retried as the {@link RetryPolicy} allows. Chunks of a resumable upload session count as idempotent;
+ * the MediaHttpUploader wraps these handlers to query the committed offset first, so a failed upload resumes
+ * where it left off. The connect and read timeouts configured on the builder are applied here, so they hold for any transport,
+ * and every request, response and retry is reported to the {@link MetricsRecorder}. The {@link InterceptorChain} is
+ * installed last, so its interceptors see the requests as they are sent and time them before any back off.
+ *
+ * @author Zeger Hoogeboom
+ */
+class GCSRequestInitializer implements HttpRequestInitializer
+{
+	private final HttpRequestInitializer delegate;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final RetryPolicy retryPolicy;
+	private final MetricsRecorder metrics;
+	private final InterceptorChain interceptors;
+
+	GCSRequestInitializer(HttpRequestInitializer delegate, int connectTimeoutMillis, int readTimeoutMillis, RetryPolicy retryPolicy)
+	{
+		this(delegate, connectTimeoutMillis, readTimeoutMillis, retryPolicy, MetricsRecorder.NOOP,
+				new InterceptorChain(Collections.<RequestInterceptor>emptyList()));
+	}
+
+	/**
+	 * @param delegate usually the credential, may be null.
+	 */
+	GCSRequestInitializer(HttpRequestInitializer delegate, int connectTimeoutMillis, int readTimeoutMillis, RetryPolicy retryPolicy,
+			MetricsRecorder metrics, InterceptorChain interceptors)
+	{
+		this.delegate = delegate;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		this.retryPolicy = retryPolicy;
+		this.metrics = metrics;
+		this.interceptors = interceptors;
+	}
+
+	public void initialize(HttpRequest request) throws IOException
+	{
+		if (delegate != null) delegate.initialize(request);
+		request.setConnectTimeout(connectTimeoutMillis);
+		request.setReadTimeout(readTimeoutMillis);
+		request.setNumberOfRetries(retryPolicy.getMaxAttempts() - 1);
+		final HttpUnsuccessfulResponseHandler authentication = request.getUnsuccessfulResponseHandler();
+		final HttpUnsuccessfulResponseHandler backOff = new HttpBackOffUnsuccessfulResponseHandler(retryPolicy.newBackOff())
+				.setBackOffRequired(new HttpBackOffUnsuccessfulResponseHandler.BackOffRequired()
+				{
+					public boolean isRequired(HttpResponse response)
+					{
+						return RetryPolicy.isRetryable(response.getStatusCode());
+					}
+				});
+		final HttpIOExceptionHandler ioBackOff = new HttpBackOffIOExceptionHandler(retryPolicy.newBackOff());
+		request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler()
+		{
+			public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry) throws IOException
+			{
+				boolean retry = authentication != null && authentication.handleResponse(request, response, supportsRetry)
+						|| RetryPolicy.isIdempotent(request) && retried(backOff.handleResponse(request, response, supportsRetry));
+				// the response interceptor only sees the response that is finally returned
+				if (retry) received(response);
+				return retry;
+			}
+		});
+		request.setIOExceptionHandler(new HttpIOExceptionHandler()
+		{
+			public boolean handleIOException(HttpRequest request, boolean supportsRetry) throws IOException
+			{
+				return RetryPolicy.isIdempotent(request) && retried(ioBackOff.handleIOException(request, supportsRetry));
+			}
+		});
+		final HttpExecuteInterceptor interceptor = request.getInterceptor();
+		request.setInterceptor(new HttpExecuteInterceptor()
+		{
+			public void intercept(HttpRequest request) throws IOException
+			{
+				if (interceptor != null) interceptor.intercept(request);
+				metrics.requestSent(request.getContent() == null ? 0 : request.getContent().getLength());
+			}
+		});
+		final HttpResponseInterceptor responseInterceptor = request.getResponseInterceptor();
+		request.setResponseInterceptor(new HttpResponseInterceptor()
+		{
+			public void interceptResponse(HttpResponse response) throws IOException
+			{
+				if (responseInterceptor != null) responseInterceptor.interceptResponse(response);
+				received(response);
+			}
+		});
+		interceptors.install(request);
+	}
+
+	private void received(HttpResponse response)
+	{
+		Long length = response.getHeaders().getContentLength();
+		metrics.responseReceived(response.getStatusCode(), length == null ? -1 : length);
+	}
+
+	private boolean retried(boolean retry)
+	{
+		if (retry) metrics.retried();
+		return retry;
+	}
+}
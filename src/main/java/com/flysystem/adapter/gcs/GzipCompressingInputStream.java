@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads the gzip encoding of another stream. The source is compressed a buffer at a time as the encoding is read,
+ * so an upload of any size only ever holds one compressed buffer in memory.
+ *
+ * @author Zeger Hoogeboom
+ */
+class GzipCompressingInputStream extends InputStream
+{
+	private final InputStream source;
+	private final byte[] buffer = new byte[GCSAdapter.BUFFER_SIZE];
+	private final Output compressed = new Output();
+	private final GZIPOutputStream gzip;
+	private int position;
+	private boolean finished;
+
+	GzipCompressingInputStream(InputStream source) throws IOException
+	{
+		this.source = source;
+		this.gzip = new GZIPOutputStream(compressed, GCSAdapter.BUFFER_SIZE);
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		byte[] single = new byte[1];
+		return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0) return 0;
+		while (position == compressed.size()) {
+			if (finished) return -1;
+			compressed.reset();
+			position = 0;
+			int read = source.read(buffer);
+			if (read == -1) {
+				gzip.finish();
+				finished = true;
+			} else {
+				gzip.write(buffer, 0, read);
+			}
+		}
+		int count = Math.min(len, compressed.size() - position);
+		System.arraycopy(compressed.bytes(), position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try {
+			gzip.close();
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * Exposes its buffer, so compressed bytes are not copied twice.
+	 */
+	private static class Output extends ByteArrayOutputStream
+	{
+		byte[] bytes()
+		{
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedges idempotent reads: when a request has not answered within the 95th percentile of recent latencies,
+ * a duplicate is sent and whichever answers first wins. Only the slowest 5% of requests can be hedged,
+ * and hedges are capped at {@link #BUDGET} of all requests, so a slow GCS does not get twice the load.
+ * The losing request is cancelled, but may still run to completion as blocking socket reads are not interruptible.
+ * <p>
+ * Requests run on an executor of their own rather than the one of the adapter: operations like
+ * {@link GCSAdapter#renamePrefix} already occupy that executor and would wait for threads their own requests hold.
+ * Only small, idempotent requests are meant to be hedged, as a hedge repeats the whole request.
+ *
+ * @author Zeger Hoogeboom
+ */
+class HedgedRequests
+{
+	final static double BUDGET = 0.05;
+	final static int WINDOW = 1024;
+	final static int MIN_SAMPLES = 32;
+
+	private final ListeningExecutorService executor;
+	private final long[] latencies = new long[WINDOW];
+	private final AtomicInteger samples = new AtomicInteger();
+	private volatile long delayNanos = -1;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+
+	HedgedRequests()
+	{
+		this(MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("gcs-hedge-%d").build())));
+	}
+
+	HedgedRequests(ListeningExecutorService executor)
+	{
+		this.executor = executor;
+	}
+
+	void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	<T> T call(final Callable<T> request) throws IOException
+	{
+		requests.incrementAndGet();
+		ListenableFuture<T> primary = executor.submit(timed(request));
+		long delay = delayNanos;
+		try {
+			if (delay < 0) return primary.get();
+			try {
+				return primary.get(delay, TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				if (hedges.get() >= BUDGET * requests.get()) return primary.get();
+				hedges.incrementAndGet();
+				return firstSuccessful(primary, executor.submit(timed(request))).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			primary.cancel(true);
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	long hedges()
+	{
+		return hedges.get();
+	}
+
+	/**
+	 * Completes with the first result, or with the last failure when both fail. The other request is cancelled.
+	 */
+	private static <T> ListenableFuture<T> firstSuccessful(final ListenableFuture<T> first, final ListenableFuture<T> second)
+	{
+		final SettableFuture<T> result = SettableFuture.create();
+		final AtomicInteger failures = new AtomicInteger();
+		for (final ListenableFuture<T> future : Arrays.asList(first, second)) {
+			Futures.addCallback(future, new FutureCallback<T>()
+			{
+				public void onSuccess(T value)
+				{
+					if (result.set(value)) {
+						first.cancel(true);
+						second.cancel(true);
+					}
+				}
+
+				public void onFailure(Throwable t)
+				{
+					if (failures.incrementAndGet() == 2) result.setException(t);
+				}
+			}, MoreExecutors.directExecutor());
+		}
+		return result;
+	}
+
+	private <T> Callable<T> timed(final Callable<T> request)
+	{
+		return new Callable<T>()
+		{
+			public T call() throws Exception
+			{
+				long start = System.nanoTime();
+				T result = request.call();
+				record(System.nanoTime() - start);
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Keeps a ring of recent latencies and recomputes the percentile every {@link #MIN_SAMPLES} samples.
+	 */
+	private void record(long nanos)
+	{
+		int sample = samples.getAndIncrement();
+		synchronized (latencies) {
+			latencies[sample % WINDOW] = nanos;
+			if (sample + 1 >= MIN_SAMPLES && (sample + 1) % MIN_SAMPLES == 0) {
+				long[] sorted = Arrays.copyOf(latencies, Math.min(sample + 1, WINDOW));
+				Arrays.sort(sorted);
+				delayNanos = sorted[(int) (sorted.length * 0.95)];
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs a list of tasks on a shared executor with at most {@code parallelism} of them in flight.
+ *
+ * @author Zeger Hoogeboom
+ */
+class ParallelTasks
+{
+	private ParallelTasks(){}
+
+	/**
+	 * @return the results, in the order of the tasks.
+	 * Does not return or throw before every started task has finished, so tasks never outlive the resources they share.
+	 * @throws IOException the first IOException a task failed with; remaining tasks are not started.
+	 */
+	static <T> List<T> invokeAll(ListeningExecutorService executor, final List<? extends Callable<T>> tasks, int parallelism) throws IOException
+	{
+		if (parallelism < 1) throw new IllegalArgumentException("Parallelism has to be at least 1.");
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicBoolean failed = new AtomicBoolean();
+		final AtomicReference<Exception> failure = new AtomicReference<>();
+		final AtomicReferenceArray<T> results = new AtomicReferenceArray<>(tasks.size());
+		List<ListenableFuture<Void>> workers = new ArrayList<>();
+		for (int i = 0; i < Math.min(parallelism, tasks.size()); i++) {
+			workers.add(executor.submit(new Callable<Void>()
+			{
+				public Void call() throws Exception
+				{
+					int task;
+					while (!failed.get() && (task = next.getAndIncrement()) < tasks.size()) {
+						try {
+							results.set(task, tasks.get(task).call());
+						} catch (Exception e) {
+							failed.set(true);
+							failure.compareAndSet(null, e);
+							throw e;
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		ListenableFuture<List<Void>> all = Futures.successfulAsList(workers);
+		try {
+			all.get();
+		} catch (InterruptedException e) {
+			failed.set(true);
+			awaitUninterruptibly(all);
+			Thread.currentThread().interrupt();
+			throw new FlysystemGenericException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e); // successfulAsList does not fail
+		}
+		Exception cause = failure.get();
+		if (cause instanceof IOException) throw (IOException) cause;
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		if (cause != null) throw new FlysystemGenericException(cause);
+		List<T> ordered = new ArrayList<>(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			ordered.add(results.get(i));
+		}
+		return ordered;
+	}
+
+	private static void awaitUninterruptibly(ListenableFuture<?> future)
+	{
+		try {
+			Uninterruptibles.getUninterruptibly(future);
+		} catch (ExecutionException ignored) {
+			// only waiting for it to finish
+		}
+	}
+}
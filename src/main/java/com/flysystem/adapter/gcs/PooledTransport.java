@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for the pooled Apache HttpClient transport {@link GCSAdapter.Builder} uses when no transport is set.
+ * Connections are kept alive and reused across requests, so steady state requests skip the TCP and TLS handshakes.
+ * Connections idle for longer than the idle timeout are closed by a background thread, because stale checking is
+ * disabled and GCS front ends silently drop connections that have been idle for a while. That one thread is shared
+ * by all pools and only holds on to them weakly, so a transport that is no longer used is collected with its pool.
+ *
+ * @author Zeger Hoogeboom
+ */
+class PooledTransport
+{
+	final static ScheduledThreadPoolExecutor EVICTOR = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("gcs-connection-evictor").build());
+
+	static {
+		EVICTOR.setRemoveOnCancelPolicy(true);
+	}
+
+	int maxConnections = 200;
+	int maxConnectionsPerRoute = 100;
+	long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+	boolean tcpNoDelay = true;
+
+	ApacheHttpTransport build() throws GeneralSecurityException, IOException
+	{
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setStaleCheckingEnabled(params, false);
+		HttpConnectionParams.setSocketBufferSize(params, GCSAdapter.BUFFER_SIZE);
+		HttpConnectionParams.setTcpNoDelay(params, tcpNoDelay);
+		ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		registry.register(new Scheme("https", new SSLSocketFactory(GoogleUtils.getCertificateTrustStore()), 443));
+		ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(params, registry);
+		evictIdleConnections(connectionManager);
+
+		DefaultHttpClient client = new DefaultHttpClient(connectionManager, params);
+		// retries are up to the request initializer, which knows which requests are safe to repeat
+		client.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+		return new ApacheHttpTransport(client);
+	}
+
+	private void evictIdleConnections(ClientConnectionManager connectionManager)
+	{
+		long period = Math.max(idleTimeoutMillis / 2, 1);
+		Eviction eviction = new Eviction(connectionManager, idleTimeoutMillis);
+		eviction.future = EVICTOR.scheduleWithFixedDelay(eviction, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops once the pool has been garbage collected, which shuts down its connections.
+	 */
+	private static class Eviction implements Runnable
+	{
+		private final WeakReference<ClientConnectionManager> connectionManager;
+		private final long idleTimeoutMillis;
+		volatile ScheduledFuture<?> future;
+
+		Eviction(ClientConnectionManager connectionManager, long idleTimeoutMillis)
+		{
+			this.connectionManager = new WeakReference<>(connectionManager);
+			this.idleTimeoutMillis = idleTimeoutMillis;
+		}
+
+		public void run()
+		{
+			ClientConnectionManager manager = connectionManager.get();
+			if (manager == null) {
+				if (future != null) future.cancel(false);
+				return;
+			}
+			manager.closeExpiredConnections();
+			manager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+
+/**
+ * When and how often {@link GCSAdapter} retries a request. Requests are retried with exponential back off and jitter
+ * on connection errors, 408, 429 and 5xx responses, but only when repeating them is safe: reads, chunks of a
+ * resumable upload and requests that carry a generation precondition. A write without a precondition is never retried,
+ * as it could overwrite a change made in between; pass "ifGenerationMatch" in the config of a write to make it retryable.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class RetryPolicy
+{
+	public final static RetryPolicy DEFAULT = new RetryPolicy(6, 500, 32 * 1000, 2.0, 0.5);
+	public final static RetryPolicy NONE = new RetryPolicy(1, 500, 500, 1.0, 0.0);
+
+	private final int maxAttempts;
+	private final int initialIntervalMillis;
+	private final int maxIntervalMillis;
+	private final double multiplier;
+	private final double jitter;
+
+	/**
+	 * @param maxAttempts           the maximum number of attempts including the first one.
+	 * @param initialIntervalMillis the wait before the first retry.
+	 * @param maxIntervalMillis     the maximum wait between two attempts.
+	 * @param multiplier            the factor the wait grows by after every attempt.
+	 * @param jitter                between 0 and 1, every wait is randomized by this fraction up or down
+	 *                              so clients that failed together do not retry together.
+	 */
+	public RetryPolicy(int maxAttempts, int initialIntervalMillis, int maxIntervalMillis, double multiplier, double jitter)
+	{
+		if (maxAttempts < 1) throw new IllegalArgumentException("At least one attempt has to be made.");
+		if (jitter < 0 || jitter >= 1) throw new IllegalArgumentException("Jitter has to be at least 0 and less than 1.");
+		this.maxAttempts = maxAttempts;
+		this.initialIntervalMillis = initialIntervalMillis;
+		this.maxIntervalMillis = maxIntervalMillis;
+		this.multiplier = multiplier;
+		this.jitter = jitter;
+	}
+
+	public int getMaxAttempts()
+	{
+		return maxAttempts;
+	}
+
+	BackOff newBackOff()
+	{
+		return new ExponentialBackOff.Builder()
+				.setInitialIntervalMillis(initialIntervalMillis)
+				.setMaxIntervalMillis(maxIntervalMillis)
+				.setMultiplier(multiplier)
+				.setRandomizationFactor(jitter)
+				.setMaxElapsedTimeMillis(Integer.MAX_VALUE)
+				.build();
+	}
+
+	static boolean isRetryable(int statusCode)
+	{
+		return statusCode == 408 || statusCode == 429 || statusCode >= HttpStatusCodes.STATUS_CODE_SERVER_ERROR;
+	}
+
+	/**
+	 * The url is only complete once the request executes, so this is decided per attempt rather than up front.
+	 */
+	static boolean isIdempotent(HttpRequest request)
+	{
+		String method = request.getRequestMethod();
+		if (method.equals("GET") || method.equals("HEAD")) return true;
+		if (request.getUrl() == null) return false;
+		// chunks of a resumable upload, and starting a session which creates nothing yet
+		if (request.getUrl().containsKey("upload_id") || "resumable".equals(request.getUrl().getFirst("uploadType"))) return true;
+		return request.getUrl().containsKey("rewriteToken")
+				|| request.getUrl().containsKey("ifGenerationMatch")
+				|| request.getUrl().containsKey("ifMetagenerationMatch")
+				|| request.getUrl().containsKey("generation");
+	}
+}
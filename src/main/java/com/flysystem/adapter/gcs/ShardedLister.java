@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.FileMetadata;
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.api.services.storage.model.Objects;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lists a prefix recursively by splitting it into sub directory shards which are listed concurrently.
+ * Shards are discovered with cheap delimiter listings, descending a few levels when the top level
+ * does not offer enough shards to keep every worker busy.
+ *
+ * @author Zeger Hoogeboom
+ */
+class ShardedLister
+{
+	private final static int MAX_SHARD_DEPTH = 3;
+
+	private final ObjectLister lister;
+	private final ListeningExecutorService executor;
+	private final int parallelism;
+
+	ShardedLister(ObjectLister lister, ListeningExecutorService executor, int parallelism)
+	{
+		if (parallelism < 1) throw new IllegalArgumentException("Parallelism has to be at least 1.");
+		this.lister = lister;
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	List<FileMetadata> list(String prefix, boolean ordered)
+	{
+		try {
+			List<Segment> segments = discover(prefix);
+			final Queue<Segment> pending = new ConcurrentLinkedQueue<>();
+			for (Segment segment : segments) {
+				if (segment.shard) pending.add(segment);
+			}
+			final Queue<Segment> completed = new ConcurrentLinkedQueue<>();
+			List<ListenableFuture<Void>> workers = new ArrayList<>();
+			for (int i = 0; i < Math.min(parallelism, pending.size()); i++) {
+				workers.add(executor.submit(new Callable<Void>()
+				{
+					public Void call() throws IOException
+					{
+						Segment shard;
+						while ((shard = pending.poll()) != null) {
+							shard.contents = listAll(shard.key);
+							completed.add(shard);
+						}
+						return null;
+					}
+				}));
+			}
+			Futures.allAsList(workers).get();
+
+			List<FileMetadata> contents = new ArrayList<>();
+			if (ordered) {
+				Collections.sort(segments);
+				for (Segment segment : segments) {
+					contents.addAll(segment.contents);
+				}
+			} else {
+				for (Segment segment : segments) {
+					if (!segment.shard) contents.addAll(segment.contents);
+				}
+				for (Segment shard : completed) {
+					contents.addAll(shard.contents);
+				}
+			}
+			return contents;
+		} catch (IOException e) {
+			throw new FlysystemGenericException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FlysystemGenericException(e);
+		} catch (ExecutionException e) {
+			throw new FlysystemGenericException(e.getCause());
+		}
+	}
+
+	/**
+	 * Splits the prefix into segments: single files which are known right away, and shards still to be listed.
+	 * While there are fewer shards than workers, every shard is expanded one more level.
+	 */
+	private List<Segment> discover(String prefix) throws IOException
+	{
+		List<Segment> segments = new ArrayList<>();
+		List<String> shards = expand(prefix, segments);
+		segments.remove(new Segment(prefix, null)); // the placeholder of the listed directory itself
+		for (int depth = 1; depth < MAX_SHARD_DEPTH && !shards.isEmpty() && shards.size() < parallelism; depth++) {
+			List<String> deeper = new ArrayList<>();
+			for (String shard : shards) {
+				deeper.addAll(expand(shard, segments));
+			}
+			shards = deeper;
+		}
+		for (String shard : shards) {
+			segments.add(new Segment(shard, null));
+		}
+		return segments;
+	}
+
+	private List<String> expand(String prefix, List<Segment> segments) throws IOException
+	{
+		StorageObjectConverter converter = new StorageObjectConverter();
+		List<String> shards = new ArrayList<>();
+		String pageToken = null;
+		do {
+			Objects objects = lister.list(prefix, false, pageToken);
+			if (objects.getItems() != null) {
+				for (StorageObject item : objects.getItems()) {
+					segments.add(new Segment(item.getName(), Collections.singletonList(converter.convert(item))));
+				}
+			}
+			if (objects.getPrefixes() != null) shards.addAll(objects.getPrefixes());
+			pageToken = objects.getNextPageToken();
+		} while (pageToken != null);
+		return shards;
+	}
+
+	private List<FileMetadata> listAll(String prefix) throws IOException
+	{
+		List<FileMetadata> contents = new ArrayList<>();
+		String pageToken = null;
+		do {
+			Objects objects = lister.list(prefix, true, pageToken);
+			contents.addAll(StorageObjectConverter.doConvert(objects.getItems()));
+			pageToken = objects.getNextPageToken();
+		} while (pageToken != null);
+		return contents;
+	}
+
+	/**
+	 * A contiguous part of the key space. All names within a shard start with its key, so sorting
+	 * segments by key yields the same order as a single lexicographic listing.
+	 */
+	private static class Segment implements Comparable<Segment>
+	{
+		final String key;
+		final boolean shard;
+		List<FileMetadata> contents;
+
+		Segment(String key, List<FileMetadata> contents)
+		{
+			this.key = key;
+			this.contents = contents;
+			this.shard = contents == null;
+		}
+
+		public int compareTo(Segment other)
+		{
+			return key.compareTo(other.key);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof Segment && key.equals(((Segment) o).key);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return key.hashCode();
+		}
+	}
+}
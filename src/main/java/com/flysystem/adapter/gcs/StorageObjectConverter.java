@@ -41,6 +41,9 @@ public class StorageObjectConverter extends Converter<StorageObject, FileMetadat
 	@Override
 	protected FileMetadata doForward(StorageObject storageObject) throws FileNotFoundException
 	{
+		if (storageObject.getName().endsWith("/")) {
+			return fromPrefix(storageObject.getName());
+		}
 		return new FileMetadata(storageObject.getName(),
 				storageObject.getSize().longValue(),
 				getVisibility(storageObject),
@@ -58,7 +61,7 @@ public class StorageObjectConverter extends Converter<StorageObject, FileMetadat
 	private Visibility getVisibility(StorageObject object)
 	{
 		Visibility visibility = Visibility.PRIVATE;
-		if (object.getAcl() != null) { //todo is always null =/!
+		if (object.getAcl() != null) { // only present when requested with the "full" projection
 			for (ObjectAccessControl objectAccessControl : object.getAcl()) {
 				if (objectAccessControl.getEntity().equals("allUsers"))
 					visibility = Visibility.PUBLIC;
@@ -67,13 +70,35 @@ public class StorageObjectConverter extends Converter<StorageObject, FileMetadat
 		return visibility;
 	}
 
+	/**
+	 * Common prefixes (and zero-byte "folder" placeholder objects) are exposed as directories, without the trailing slash.
+	 */
+	public FileMetadata fromPrefix(String prefix)
+	{
+		FileMetadata directory = new FileMetadata(prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix);
+		directory.setType("dir");
+		return directory;
+	}
+
 	public static List<FileMetadata> doConvert(List<StorageObject> files)
+	{
+		return doConvert(files, null);
+	}
+
+	public static List<FileMetadata> doConvert(List<StorageObject> files, List<String> prefixes)
 	{
 		StorageObjectConverter fileMetadataConverter = new StorageObjectConverter();
 		List<FileMetadata> convertedFiles = new ArrayList<>();
-		for (StorageObject file : files) {
-			FileMetadata converted = fileMetadataConverter.convert(file);
-			convertedFiles.add(converted);
+		if (prefixes != null) {
+			for (String prefix : prefixes) {
+				convertedFiles.add(fileMetadataConverter.fromPrefix(prefix));
+			}
+		}
+		if (files != null) {
+			for (StorageObject file : files) {
+				FileMetadata converted = fileMetadataConverter.convert(file);
+				convertedFiles.add(converted);
+			}
 		}
 		return convertedFiles;
 	}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.emulator;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A request to the emulator, its content is serialized into memory as if it was sent over the wire.
+ *
+ * @author Zeger Hoogeboom
+ */
+class EmulatorRequest extends LowLevelHttpRequest
+{
+	private final StorageEmulator emulator;
+	private final String method;
+	private final String url;
+	private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	EmulatorRequest(StorageEmulator emulator, String method, String url)
+	{
+		this.emulator = emulator;
+		this.method = method;
+		this.url = url;
+	}
+
+	@Override
+	public void addHeader(String name, String value)
+	{
+		headers.put(name, value);
+	}
+
+	@Override
+	public LowLevelHttpResponse execute() throws IOException
+	{
+		byte[] body = new byte[0];
+		if (getStreamingContent() != null) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			getStreamingContent().writeTo(out);
+			body = out.toByteArray();
+			if ("gzip".equals(getContentEncoding())) body = gunzip(body);
+		}
+		if (getContentType() != null) headers.put("Content-Type", getContentType());
+		return emulator.execute(method, url, headers, body);
+	}
+
+	static byte[] gunzip(byte[] bytes) throws IOException
+	{
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			return ByteStreams.toByteArray(in);
+		}
+	}
+}
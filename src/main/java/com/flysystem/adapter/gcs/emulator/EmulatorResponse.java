@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.emulator;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A response of the emulator, its content is streamed from the stored buffer without copying it.
+ *
+ * @author Zeger Hoogeboom
+ */
+class EmulatorResponse extends LowLevelHttpResponse
+{
+	private final static String[] ENTITY_HEADERS = {"Content-Length", "Content-Type", "Content-Encoding"};
+
+	private final int statusCode;
+	private final List<String> names = new ArrayList<>();
+	private final List<String> values = new ArrayList<>();
+	private String contentType;
+	private String contentEncoding;
+	private ByteBuffer content = ByteBuffer.allocate(0);
+
+	EmulatorResponse(int statusCode)
+	{
+		this.statusCode = statusCode;
+	}
+
+	static EmulatorResponse json(int statusCode, String json)
+	{
+		return new EmulatorResponse(statusCode).setContent("application/json; charset=UTF-8", json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static EmulatorResponse error(int statusCode, String message)
+	{
+		return json(statusCode, String.format("{\"error\":{\"code\":%d,\"message\":\"%s\",\"errors\":[{\"message\":\"%s\"}]}}",
+				statusCode, message.replace("\"", "'"), message.replace("\"", "'")));
+	}
+
+	EmulatorResponse addHeader(String name, String value)
+	{
+		names.add(name);
+		values.add(value);
+		return this;
+	}
+
+	EmulatorResponse setContent(String contentType, byte[] content)
+	{
+		return setContent(contentType, ByteBuffer.wrap(content));
+	}
+
+	EmulatorResponse setContent(String contentType, ByteBuffer content)
+	{
+		this.contentType = contentType;
+		this.content = content.duplicate();
+		return this;
+	}
+
+	EmulatorResponse setContentEncoding(String contentEncoding)
+	{
+		this.contentEncoding = contentEncoding;
+		return this;
+	}
+
+	/**
+	 * @return the number of bytes in the body.
+	 */
+	int size()
+	{
+		return content.remaining();
+	}
+
+	/**
+	 * The response as the part of a batch response, in the HTTP/1.1 message format.
+	 */
+	byte[] toMessage()
+	{
+		StringBuilder message = new StringBuilder("HTTP/1.1 ").append(statusCode).append(' ').append(getReasonPhrase()).append("\r\n");
+		if (contentType != null) message.append("Content-Type: ").append(contentType).append("\r\n");
+		for (int i = 0; i < names.size(); i++) message.append(names.get(i)).append(": ").append(values.get(i)).append("\r\n");
+		message.append("Content-Length: ").append(content.remaining()).append("\r\n\r\n");
+		byte[] head = message.toString().getBytes(StandardCharsets.UTF_8);
+		byte[] bytes = new byte[head.length + content.remaining()];
+		System.arraycopy(head, 0, bytes, 0, head.length);
+		content.duplicate().get(bytes, head.length, content.remaining());
+		return bytes;
+	}
+
+	@Override
+	public InputStream getContent()
+	{
+		if (content.hasArray()) {
+			return new ByteArrayInputStream(content.array(), content.arrayOffset() + content.position(), content.remaining());
+		}
+		return new ByteBufferInputStream(content.duplicate());
+	}
+
+	@Override
+	public String getContentEncoding()
+	{
+		return contentEncoding;
+	}
+
+	@Override
+	public long getContentLength()
+	{
+		return content.remaining();
+	}
+
+	@Override
+	public String getContentType()
+	{
+		return contentType;
+	}
+
+	@Override
+	public String getStatusLine()
+	{
+		return "HTTP/1.1 " + statusCode + " " + getReasonPhrase();
+	}
+
+	@Override
+	public int getStatusCode()
+	{
+		return statusCode;
+	}
+
+	@Override
+	public String getReasonPhrase()
+	{
+		switch (statusCode) {
+			case 200: return "OK";
+			case 204: return "No Content";
+			case 206: return "Partial Content";
+			case 304: return "Not Modified";
+			case 308: return "Resume Incomplete";
+			case 400: return "Bad Request";
+			case 404: return "Not Found";
+			case 412: return "Precondition Failed";
+			case 429: return "Too Many Requests";
+			case 503: return "Service Unavailable";
+			default: return "Status " + statusCode;
+		}
+	}
+
+	/**
+	 * Like a real transport, the entity headers are part of the response headers as well.
+	 */
+	@Override
+	public int getHeaderCount()
+	{
+		return names.size() + 3;
+	}
+
+	@Override
+	public String getHeaderName(int index)
+	{
+		if (index < names.size()) return names.get(index);
+		return ENTITY_HEADERS[index - names.size()];
+	}
+
+	@Override
+	public String getHeaderValue(int index)
+	{
+		if (index < names.size()) return values.get(index);
+		switch (index - names.size()) {
+			case 0: return String.valueOf(content.remaining());
+			case 1: return contentType;
+			default: return contentEncoding;
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream
+	{
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (len == 0) return 0;
+			if (!buffer.hasRemaining()) return -1;
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available()
+		{
+			return buffer.remaining();
+		}
+	}
+}
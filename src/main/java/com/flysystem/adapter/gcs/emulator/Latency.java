@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.emulator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A distribution the {@link StorageEmulator} draws the latency of each response from.
+ *
+ * @author Zeger Hoogeboom
+ */
+public abstract class Latency
+{
+	public final static Latency NONE = fixed(0, TimeUnit.NANOSECONDS);
+
+	/**
+	 * @return the latency of the next response in nanoseconds.
+	 */
+	public abstract long nextNanos();
+
+	public static Latency fixed(long latency, TimeUnit unit)
+	{
+		final long nanos = unit.toNanos(latency);
+		return new Latency()
+		{
+			@Override
+			public long nextNanos()
+			{
+				return nanos;
+			}
+		};
+	}
+
+	public static Latency uniform(long min, long max, TimeUnit unit)
+	{
+		if (min < 0 || max < min) throw new IllegalArgumentException("The minimum can not be negative or larger than the maximum.");
+		final long minNanos = unit.toNanos(min);
+		final long maxNanos = unit.toNanos(max);
+		return new Latency()
+		{
+			@Override
+			public long nextNanos()
+			{
+				return minNanos + (long) (ThreadLocalRandom.current().nextDouble() * (maxNanos - minNanos));
+			}
+		};
+	}
+
+	/**
+	 * A log-normal distribution, which has the long tail of real request latencies.
+	 * @param median the 50th percentile.
+	 * @param p99    the 99th percentile, at least the median.
+	 */
+	public static Latency logNormal(long median, long p99, TimeUnit unit)
+	{
+		if (median <= 0 || p99 < median) throw new IllegalArgumentException("The median has to be positive and the 99th percentile at least the median.");
+		final double mu = Math.log(unit.toNanos(median));
+		// 2.326 is the 99th percentile of the standard normal distribution
+		final double sigma = (Math.log(unit.toNanos(p99)) - mu) / 2.326;
+		return new Latency()
+		{
+			@Override
+			public long nextNanos()
+			{
+				return (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+			}
+		};
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits multipart/related uploads and multipart/mixed batches into their parts, and parses HTTP messages such as
+ * the requests inside a batch. Binary content is kept as is.
+ *
+ * @author Zeger Hoogeboom
+ */
+class Multipart
+{
+	private final static Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?");
+	private final static String CRLF = "\r\n";
+
+	/**
+	 * Headers and content of a part, or of an HTTP message.
+	 */
+	static class Part
+	{
+		final String startLine;
+		final Map<String, String> headers;
+		final byte[] content;
+
+		Part(String startLine, Map<String, String> headers, byte[] content)
+		{
+			this.startLine = startLine;
+			this.headers = headers;
+			this.content = content;
+		}
+	}
+
+	private Multipart()
+	{
+	}
+
+	static String boundary(String contentType)
+	{
+		Matcher boundary = BOUNDARY.matcher(contentType == null ? "" : contentType);
+		if (!boundary.find()) throw new IllegalArgumentException("No boundary in " + contentType);
+		return boundary.group(1);
+	}
+
+	static List<Part> parse(byte[] body, String contentType)
+	{
+		String delimiter = "--" + boundary(contentType);
+		// latin-1 maps every byte to one char, so indexes into the text are indexes into the body
+		String text = new String(body, StandardCharsets.ISO_8859_1);
+		List<Part> parts = new ArrayList<>();
+		int start = text.indexOf(delimiter);
+		while (start != -1) {
+			int from = start + delimiter.length();
+			if (text.startsWith("--", from)) break;
+			int end = text.indexOf(delimiter, from);
+			if (end == -1) break;
+			from = skipLineBreak(text, from);
+			int to = text.lastIndexOf(CRLF, end) == end - CRLF.length() ? end - CRLF.length() : end;
+			parts.add(message(body, text, from, to, false));
+			start = end;
+		}
+		return parts;
+	}
+
+	/**
+	 * @param body an HTTP message, starting with a request or status line.
+	 */
+	static Part parseMessage(byte[] body)
+	{
+		String text = new String(body, StandardCharsets.ISO_8859_1);
+		return message(body, text, 0, text.length(), true);
+	}
+
+	private static Part message(byte[] body, String text, int from, int to, boolean startLine)
+	{
+		int headersEnd = text.indexOf(CRLF + CRLF, from);
+		if (headersEnd == -1 || headersEnd > to) headersEnd = to;
+		String[] lines = text.substring(from, headersEnd).split(CRLF);
+		Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (int i = startLine ? 1 : 0; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon > 0) headers.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+		}
+		int contentStart = Math.min(headersEnd + 2 * CRLF.length(), to);
+		return new Part(startLine ? lines[0] : null, headers, Arrays.copyOfRange(body, contentStart, to));
+	}
+
+	private static int skipLineBreak(String text, int index)
+	{
+		return text.startsWith(CRLF, index) ? index + CRLF.length() : index;
+	}
+
+	/**
+	 * Builds a multipart/mixed body of HTTP messages, as a batch response.
+	 */
+	static byte[] mixed(String boundary, List<String> contentIds, List<byte[]> messages)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < messages.size(); i++) {
+			StringBuilder head = new StringBuilder("--").append(boundary).append(CRLF)
+					.append("Content-Type: application/http").append(CRLF);
+			if (contentIds.get(i) != null) head.append("Content-ID: ").append(contentIds.get(i)).append(CRLF);
+			write(out, head.append(CRLF).toString().getBytes(StandardCharsets.ISO_8859_1));
+			write(out, messages.get(i));
+			write(out, CRLF.getBytes(StandardCharsets.ISO_8859_1));
+		}
+		write(out, ("--" + boundary + "--" + CRLF).getBytes(StandardCharsets.ISO_8859_1));
+		return out.toByteArray();
+	}
+
+	private static void write(ByteArrayOutputStream out, byte[] bytes)
+	{
+		out.write(bytes, 0, bytes.length);
+	}
+}
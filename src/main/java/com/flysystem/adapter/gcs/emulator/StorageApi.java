@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.emulator;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.storage.model.Bucket;
+import com.google.api.services.storage.model.ComposeRequest;
+import com.google.api.services.storage.model.ObjectAccessControl;
+import com.google.api.services.storage.model.Objects;
+import com.google.api.services.storage.model.RewriteResponse;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Striped;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The subset of the JSON and upload API of GCS that {@link com.flysystem.adapter.gcs.GCSAdapter} uses, on an in-memory
+ * object store. Objects only keep their latest generation. Writes to the same name are serialized, so generation
+ * preconditions hold under concurrent load.
+ *
+ * @author Zeger Hoogeboom
+ */
+class StorageApi
+{
+	private final static String BASE_URL = "https://www.googleapis.com";
+	private final static String BATCH_BOUNDARY = "batch_emulator";
+	private final static Pattern CONTENT_RANGE = Pattern.compile("bytes (\\*|(\\d+)-(\\d+))/(\\*|\\d+)");
+	private final static Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+	private final JsonFactory json = JacksonFactory.getDefaultInstance();
+	private final ConcurrentMap<String, ConcurrentSkipListMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+	private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+	private final Striped<Lock> locks = Striped.lock(64);
+	private final AtomicLong generations = new AtomicLong(System.currentTimeMillis() * 1000);
+	private final AtomicLong sessionIds = new AtomicLong();
+	private final StorageEmulator emulator;
+	private final boolean offHeap;
+
+	/**
+	 * An object is never changed once stored, a write replaces it.
+	 */
+	private static class StoredObject
+	{
+		final StorageObject metadata;
+		final ByteBuffer content;
+
+		StoredObject(StorageObject metadata, ByteBuffer content)
+		{
+			this.metadata = metadata;
+			this.content = content;
+		}
+	}
+
+	private static class Session
+	{
+		final String bucket;
+		final StorageObject metadata;
+		final GenericUrl url;
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+		Session(String bucket, StorageObject metadata, GenericUrl url)
+		{
+			this.bucket = bucket;
+			this.metadata = metadata;
+			this.url = url;
+		}
+	}
+
+	/**
+	 * Ends the handling of a request with an error response.
+	 */
+	private static class Failure extends Exception
+	{
+		final EmulatorResponse response;
+
+		Failure(int statusCode, String message)
+		{
+			super(message);
+			this.response = EmulatorResponse.error(statusCode, message);
+		}
+	}
+
+	/**
+	 * @param emulator decides which of the requests inside a batch fail.
+	 * @param offHeap  keep the contents of objects in direct buffers, outside of the heap.
+	 */
+	StorageApi(StorageEmulator emulator, boolean offHeap)
+	{
+		this.emulator = emulator;
+		this.offHeap = offHeap;
+	}
+
+	static StorageEmulator.Operation operation(String method, String url)
+	{
+		String path = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+		if (path.contains("/batch")) return StorageEmulator.Operation.BATCH;
+		if (path.contains("/upload/")) return StorageEmulator.Operation.INSERT;
+		if (path.endsWith("/compose")) return StorageEmulator.Operation.COMPOSE;
+		if (path.contains("/rewriteTo/")) return StorageEmulator.Operation.REWRITE;
+		if (path.contains("/copyTo/")) return StorageEmulator.Operation.COPY;
+		if (method.equals("DELETE")) return StorageEmulator.Operation.DELETE;
+		if (path.endsWith("/o")) return method.equals("POST") ? StorageEmulator.Operation.INSERT : StorageEmulator.Operation.LIST;
+		if (url.contains("alt=media")) return StorageEmulator.Operation.DOWNLOAD;
+		return StorageEmulator.Operation.GET;
+	}
+
+	EmulatorResponse handle(String method, String url, Map<String, String> headers, byte[] body) throws IOException
+	{
+		try {
+			return route(method, new GenericUrl(url), headers, body);
+		} catch (Failure failure) {
+			return failure.response;
+		}
+	}
+
+	private EmulatorResponse route(String method, GenericUrl url, Map<String, String> headers, byte[] body) throws IOException, Failure
+	{
+		List<String> path = new ArrayList<>(url.getPathParts());
+		path.remove("");
+		if (!path.isEmpty() && path.get(0).equals("batch")) return batch(headers, body);
+		boolean upload = !path.isEmpty() && path.get(0).equals("upload");
+		if (upload) path.remove(0);
+		// storage/v1/b/{bucket}[/o[/{object}[/compose|/{copyTo|rewriteTo}/b/{bucket}/o/{object}]]]
+		if (path.size() < 4 || !path.get(0).equals("storage") || !path.get(2).equals("b")) throw new Failure(404, "Not Found");
+		String bucket = path.get(3);
+		if (path.size() == 4) {
+			return EmulatorResponse.json(200, json.toString(new Bucket().setKind("storage#bucket").setId(bucket).setName(bucket)));
+		}
+		if (upload) {
+			if (url.getFirst("upload_id") != null) return resume(url, headers, body);
+			return insert(bucket, url, headers, body);
+		}
+		if (path.size() == 5) {
+			if (method.equals("POST")) return insert(bucket, url, headers, body);
+			return list(bucket, url);
+		}
+		String name = path.get(5);
+		if (path.size() == 6) {
+			if (method.equals("DELETE")) return delete(bucket, name, url);
+			return get(bucket, name, url, headers);
+		}
+		if (path.size() == 7 && path.get(6).equals("compose")) return compose(bucket, name, url, body);
+		if (path.size() == 11 && (path.get(6).equals("copyTo") || path.get(6).equals("rewriteTo"))) {
+			return copy(bucket, name, path.get(8), path.get(10), url, body, path.get(6).equals("rewriteTo"));
+		}
+		throw new Failure(404, "Not Found");
+	}
+
+	private EmulatorResponse get(String bucket, String name, GenericUrl url, Map<String, String> headers) throws IOException, Failure
+	{
+		StoredObject object = find(bucket, name, param(url, "generation"));
+		Long generation = object.metadata.getGeneration();
+		Long ifGenerationNotMatch = param(url, "ifGenerationNotMatch");
+		if ((ifGenerationNotMatch != null && ifGenerationNotMatch.equals(generation))
+				|| object.metadata.getEtag().equals(headers.get("If-None-Match"))) {
+			return new EmulatorResponse(304);
+		}
+		preconditions(object, param(url, "ifGenerationMatch"), param(url, "ifMetagenerationMatch"));
+		if (!"media".equals(url.getFirst("alt"))) return EmulatorResponse.json(200, json.toString(object.metadata));
+		return media(object, headers);
+	}
+
+	private EmulatorResponse media(StoredObject object, Map<String, String> headers) throws IOException, Failure
+	{
+		StorageObject metadata = object.metadata;
+		EmulatorResponse response;
+		boolean gzip = "gzip".equals(metadata.getContentEncoding());
+		String acceptEncoding = headers.get("Accept-Encoding");
+		Matcher range = RANGE.matcher(headers.containsKey("Range") ? headers.get("Range") : "");
+		if (gzip && (acceptEncoding == null || !acceptEncoding.contains("gzip"))) {
+			// decompressive transcoding, the stored checksums do not apply to what is sent
+			return new EmulatorResponse(200).setContent(metadata.getContentType(), EmulatorRequest.gunzip(bytes(object.content)))
+					.addHeader("x-goog-generation", String.valueOf(metadata.getGeneration()));
+		} else if (!gzip && range.matches()) {
+			long size = object.content.remaining();
+			long first = Long.parseLong(range.group(1));
+			long last = range.group(2).isEmpty() ? size - 1 : Math.min(Long.parseLong(range.group(2)), size - 1);
+			if (first >= size) throw new Failure(416, "Requested range not satisfiable");
+			ByteBuffer slice = object.content.duplicate();
+			slice.position((int) first);
+			slice.limit((int) last + 1);
+			response = new EmulatorResponse(206).setContent(metadata.getContentType(), slice.slice())
+					.addHeader("Content-Range", "bytes " + first + "-" + last + "/" + size);
+		} else {
+			response = new EmulatorResponse(200).setContent(metadata.getContentType(), object.content);
+			if (gzip) response.setContentEncoding("gzip");
+		}
+		String hash = "crc32c=" + metadata.getCrc32c() + (metadata.getMd5Hash() == null ? "" : ",md5=" + metadata.getMd5Hash());
+		return response.addHeader("x-goog-generation", String.valueOf(metadata.getGeneration()))
+				.addHeader("x-goog-metageneration", String.valueOf(metadata.getMetageneration()))
+				.addHeader("x-goog-hash", hash)
+				.addHeader("ETag", metadata.getEtag());
+	}
+
+	private EmulatorResponse list(String bucket, GenericUrl url) throws IOException
+	{
+		ConcurrentSkipListMap<String, StoredObject> objects = bucket(bucket);
+		String prefix = url.getFirst("prefix") == null ? "" : (String) url.getFirst("prefix");
+		String delimiter = (String) url.getFirst("delimiter");
+		Long maxResults = param(url, "maxResults");
+		long max = maxResults == null ? 1000 : maxResults;
+		String cursor = (String) url.getFirst("pageToken");
+		List<StorageObject> items = new ArrayList<>();
+		List<String> prefixes = new ArrayList<>();
+		String nextPageToken = null;
+		String key = cursor == null ? objects.ceilingKey(prefix) : objects.higherKey(cursor);
+		while (key != null && key.startsWith(prefix)) {
+			if (items.size() + prefixes.size() == max) {
+				nextPageToken = cursor;
+				break;
+			}
+			int index = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+			if (index != -1) {
+				String common = key.substring(0, index + delimiter.length());
+				prefixes.add(common);
+				// skips every name with this prefix
+				cursor = common + Character.MAX_VALUE;
+			} else {
+				StoredObject object = objects.get(key);
+				if (object != null) items.add(object.metadata);
+				cursor = key;
+			}
+			key = objects.higherKey(cursor);
+		}
+		Objects page = new Objects().setKind("storage#objects").setNextPageToken(nextPageToken);
+		if (!items.isEmpty()) page.setItems(items);
+		if (!prefixes.isEmpty()) page.setPrefixes(prefixes);
+		return EmulatorResponse.json(200, json.toString(page));
+	}
+
+	private EmulatorResponse insert(String bucket, GenericUrl url, Map<String, String> headers, byte[] body) throws IOException, Failure
+	{
+		String uploadType = (String) url.getFirst("uploadType");
+		StorageObject metadata;
+		byte[] content;
+		if ("multipart".equals(uploadType)) {
+			List<Multipart.Part> parts = Multipart.parse(body, headers.get("Content-Type"));
+			if (parts.size() != 2) throw new Failure(400, "A multipart upload has a metadata and a media part.");
+			metadata = parse(parts.get(0).content, StorageObject.class);
+			if (metadata.getContentType() == null) metadata.setContentType(parts.get(1).headers.get("Content-Type"));
+			content = parts.get(1).content;
+		} else if ("resumable".equals(uploadType)) {
+			metadata = body.length == 0 ? new StorageObject() : parse(body, StorageObject.class);
+			if (metadata.getName() == null) metadata.setName((String) url.getFirst("name"));
+			if (metadata.getContentType() == null) metadata.setContentType(headers.get("X-Upload-Content-Type"));
+			String id = String.valueOf(sessionIds.incrementAndGet());
+			sessions.put(id, new Session(bucket, metadata, url));
+			return new EmulatorResponse(200).addHeader("Location", url.build() + "&upload_id=" + id);
+		} else if ("media".equals(uploadType)) {
+			metadata = new StorageObject().setContentType(headers.get("Content-Type"));
+			content = body;
+		} else {
+			metadata = parse(body, StorageObject.class);
+			content = new byte[0];
+		}
+		if (metadata.getName() == null) metadata.setName((String) url.getFirst("name"));
+		return EmulatorResponse.json(200, json.toString(store(bucket, metadata, content, url)));
+	}
+
+	private EmulatorResponse resume(GenericUrl url, Map<String, String> headers, byte[] body) throws IOException, Failure
+	{
+		String id = (String) url.getFirst("upload_id");
+		Session session = sessions.get(id);
+		if (session == null) throw new Failure(404, "No such upload session " + id);
+		synchronized (session) {
+			long total = -1;
+			Matcher range = CONTENT_RANGE.matcher(headers.containsKey("Content-Range") ? headers.get("Content-Range") : "");
+			if (range.matches()) {
+				if (range.group(2) != null) {
+					long first = Long.parseLong(range.group(2));
+					long received = session.received.size();
+					if (first > received) throw new Failure(400, "Bytes are missing before offset " + first);
+					// a chunk that is sent again after a failure may overlap with what was committed
+					int skip = (int) (received - first);
+					if (skip < body.length) session.received.write(body, skip, body.length - skip);
+				}
+				if (!range.group(4).equals("*")) total = Long.parseLong(range.group(4));
+			} else {
+				session.received.write(body, 0, body.length);
+				total = session.received.size();
+			}
+			if (total == session.received.size()) {
+				sessions.remove(id);
+				return EmulatorResponse.json(200, json.toString(store(session.bucket, session.metadata, session.received.toByteArray(), session.url)));
+			}
+			EmulatorResponse response = new EmulatorResponse(308);
+			if (session.received.size() > 0) response.addHeader("Range", "bytes=0-" + (session.received.size() - 1));
+			return response;
+		}
+	}
+
+	private EmulatorResponse delete(String bucket, String name, GenericUrl url) throws Failure
+	{
+		Lock lock = locks.get(bucket + "/" + name);
+		lock.lock();
+		try {
+			StoredObject object = find(bucket, name, param(url, "generation"));
+			preconditions(object, param(url, "ifGenerationMatch"), param(url, "ifMetagenerationMatch"));
+			bucket(bucket).remove(name);
+			return new EmulatorResponse(204);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private EmulatorResponse copy(String sourceBucket, String sourceName, String bucket, String name, GenericUrl url, byte[] body,
+			boolean rewrite) throws IOException, Failure
+	{
+		StoredObject source = find(sourceBucket, sourceName, param(url, "sourceGeneration"));
+		Long ifSourceGenerationMatch = param(url, "ifSourceGenerationMatch");
+		if (ifSourceGenerationMatch != null && !ifSourceGenerationMatch.equals(source.metadata.getGeneration())) {
+			throw new Failure(412, "Precondition Failed");
+		}
+		long size = source.content.remaining();
+		if (rewrite) {
+			Long maxBytesRewrittenPerCall = param(url, "maxBytesRewrittenPerCall");
+			String rewriteToken = (String) url.getFirst("rewriteToken");
+			long rewritten = rewriteToken == null ? 0 : Long.parseLong(rewriteToken);
+			if (maxBytesRewrittenPerCall != null && rewritten + maxBytesRewrittenPerCall < size) {
+				// the token is the number of bytes rewritten so far
+				rewritten += maxBytesRewrittenPerCall;
+				return EmulatorResponse.json(200, json.toString(new RewriteResponse().setKind("storage#rewriteResponse").setDone(false)
+						.setRewriteToken(String.valueOf(rewritten)).setTotalBytesRewritten(BigInteger.valueOf(rewritten))
+						.setObjectSize(BigInteger.valueOf(size))));
+			}
+		}
+		StorageObject metadata = body.length == 0 ? null : parse(body, StorageObject.class);
+		if (metadata == null || metadata.isEmpty()) {
+			metadata = new StorageObject().setContentType(source.metadata.getContentType())
+					.setContentEncoding(source.metadata.getContentEncoding()).setMetadata(source.metadata.getMetadata());
+		}
+		metadata.setName(name);
+		StorageObject copied = store(bucket, metadata, source.content, source.metadata.getCrc32c(), source.metadata.getMd5Hash(),
+				source.metadata.getComponentCount(), url);
+		if (!rewrite) return EmulatorResponse.json(200, json.toString(copied));
+		return EmulatorResponse.json(200, json.toString(new RewriteResponse().setKind("storage#rewriteResponse").setDone(true)
+				.setTotalBytesRewritten(BigInteger.valueOf(size)).setObjectSize(BigInteger.valueOf(size)).setResource(copied)));
+	}
+
+	private EmulatorResponse compose(String bucket, String name, GenericUrl url, byte[] body) throws IOException, Failure
+	{
+		ComposeRequest request = parse(body, ComposeRequest.class);
+		if (request.getSourceObjects() == null || request.getSourceObjects().size() > 32) {
+			throw new Failure(400, "A compose request has between 1 and 32 source objects.");
+		}
+		ByteArrayOutputStream composed = new ByteArrayOutputStream();
+		int componentCount = 0;
+		for (ComposeRequest.SourceObjects source : request.getSourceObjects()) {
+			StoredObject component = find(bucket, source.getName(), source.getGeneration());
+			byte[] bytes = bytes(component.content);
+			composed.write(bytes, 0, bytes.length);
+			componentCount += component.metadata.getComponentCount() == null ? 1 : component.metadata.getComponentCount();
+		}
+		StorageObject metadata = request.getDestination() == null ? new StorageObject() : request.getDestination();
+		metadata.setName(name);
+		byte[] content = composed.toByteArray();
+		// like GCS, a composite object only has a CRC32C
+		return EmulatorResponse.json(200, json.toString(store(bucket, metadata, buffer(content), crc32c(content), null, componentCount, url)));
+	}
+
+	private EmulatorResponse batch(Map<String, String> headers, byte[] body) throws IOException
+	{
+		List<String> contentIds = new ArrayList<>();
+		List<byte[]> messages = new ArrayList<>();
+		for (Multipart.Part part : Multipart.parse(body, headers.get("Content-Type"))) {
+			Multipart.Part request = Multipart.parseMessage(part.content);
+			String[] line = request.startLine.split(" ");
+			String url = line[1].startsWith("/") ? BASE_URL + line[1] : line[1];
+			EmulatorResponse failure = emulator.failNext(operation(line[0], url));
+			messages.add((failure != null ? failure : handle(line[0], url, request.headers, request.content)).toMessage());
+			String contentId = part.headers.get("Content-ID");
+			contentIds.add(contentId == null ? null : "<response-" + contentId.replaceAll("[<>]", "") + ">");
+		}
+		return new EmulatorResponse(200).setContent("multipart/mixed; boundary=" + BATCH_BOUNDARY,
+				Multipart.mixed(BATCH_BOUNDARY, contentIds, messages));
+	}
+
+	private StorageObject store(String bucket, StorageObject metadata, byte[] content, GenericUrl url) throws Failure
+	{
+		String crc32c = crc32c(content);
+		if (metadata.getCrc32c() != null && !metadata.getCrc32c().equals(crc32c)) {
+			throw new Failure(400, "Provided CRC32C \"" + metadata.getCrc32c() + "\" doesn't match calculated CRC32C \"" + crc32c + "\".");
+		}
+		String md5 = BaseEncoding.base64().encode(Hashing.md5().hashBytes(content).asBytes());
+		if (metadata.getMd5Hash() != null && !metadata.getMd5Hash().equals(md5)) {
+			throw new Failure(400, "Provided MD5 hash \"" + metadata.getMd5Hash() + "\" doesn't match calculated MD5 hash \"" + md5 + "\".");
+		}
+		return store(bucket, metadata, buffer(content), crc32c, md5, null, url);
+	}
+
+	private StorageObject store(String bucket, StorageObject metadata, ByteBuffer content, String crc32c, String md5,
+			Integer componentCount, GenericUrl url) throws Failure
+	{
+		String name = metadata.getName();
+		if (name == null || name.isEmpty()) throw new Failure(400, "Required object name is missing.");
+		Lock lock = locks.get(bucket + "/" + name);
+		lock.lock();
+		try {
+			ConcurrentSkipListMap<String, StoredObject> objects = bucket(bucket);
+			StoredObject existing = objects.get(name);
+			preconditions(existing, param(url, "ifGenerationMatch"), param(url, "ifMetagenerationMatch"));
+			long generation = generations.incrementAndGet();
+			DateTime now = new DateTime(System.currentTimeMillis());
+			boolean publicRead = "publicRead".equals(url.getFirst("predefinedAcl"));
+			StorageObject stored = metadata.clone()
+					.setKind("storage#object")
+					.setId(bucket + "/" + name + "/" + generation)
+					.setBucket(bucket)
+					.setGeneration(generation)
+					.setMetageneration(1L)
+					.setSize(BigInteger.valueOf(content.remaining()))
+					.setContentType(metadata.getContentType() == null ? "application/octet-stream" : metadata.getContentType())
+					.setUpdated(now)
+					.setStorageClass("STANDARD")
+					.setCrc32c(crc32c)
+					.setMd5Hash(md5)
+					.setComponentCount(componentCount)
+					.setEtag("\"" + generation + "/1\"")
+					.setAcl(Collections.singletonList(new ObjectAccessControl()
+							.setEntity(publicRead ? "allUsers" : "project-owners").setRole(publicRead ? "READER" : "OWNER")));
+			objects.put(name, new StoredObject(stored, content));
+			return stored;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private StoredObject find(String bucket, String name, Long generation) throws Failure
+	{
+		StoredObject object = bucket(bucket).get(name);
+		if (object == null || (generation != null && !generation.equals(object.metadata.getGeneration()))) {
+			throw new Failure(404, "No such object: " + bucket + "/" + name);
+		}
+		return object;
+	}
+
+	/**
+	 * A generation of 0 requires that there is no live object.
+	 */
+	private static void preconditions(StoredObject existing, Long ifGenerationMatch, Long ifMetagenerationMatch) throws Failure
+	{
+		Long generation = existing == null ? Long.valueOf(0) : existing.metadata.getGeneration();
+		if (ifGenerationMatch != null && !ifGenerationMatch.equals(generation)) throw new Failure(412, "Precondition Failed");
+		if (ifMetagenerationMatch != null && (existing == null || !ifMetagenerationMatch.equals(existing.metadata.getMetageneration()))) {
+			throw new Failure(412, "Precondition Failed");
+		}
+	}
+
+	private ConcurrentSkipListMap<String, StoredObject> bucket(String name)
+	{
+		ConcurrentSkipListMap<String, StoredObject> bucket = buckets.get(name);
+		if (bucket == null) {
+			buckets.putIfAbsent(name, new ConcurrentSkipListMap<String, StoredObject>());
+			bucket = buckets.get(name);
+		}
+		return bucket;
+	}
+
+	private <T> T parse(byte[] body, Class<T> type) throws Failure
+	{
+		try {
+			return json.fromString(new String(body, StandardCharsets.UTF_8), type);
+		} catch (IOException | IllegalArgumentException e) {
+			throw new Failure(400, "Invalid JSON: " + e.getMessage());
+		}
+	}
+
+	private static Long param(GenericUrl url, String name)
+	{
+		Object value = url.getFirst(name);
+		return value == null ? null : Long.valueOf(value.toString());
+	}
+
+	private ByteBuffer buffer(byte[] content)
+	{
+		if (!offHeap) return ByteBuffer.wrap(content);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+		buffer.put(content).flip();
+		return buffer;
+	}
+
+	private static byte[] bytes(ByteBuffer content)
+	{
+		byte[] bytes = new byte[content.remaining()];
+		content.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * GCS encodes a CRC32C in big-endian byte order.
+	 */
+	private static String crc32c(byte[] content)
+	{
+		return BaseEncoding.base64().encode(Ints.toByteArray(Hashing.crc32c().hashBytes(content).asInt()));
+	}
+
+	int size()
+	{
+		int size = 0;
+		for (ConcurrentSkipListMap<String, StoredObject> bucket : buckets.values()) size += bucket.size();
+		return size;
+	}
+
+	void clear()
+	{
+		buckets.clear();
+		sessions.clear();
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.emulator;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-process emulator of the GCS JSON and upload API, for load testing without a network. It supports what
+ * {@link com.flysystem.adapter.gcs.GCSAdapter} uses: getting, inserting, listing, copying, rewriting, composing and
+ * deleting objects, media downloads with a Range, resumable uploads, batches and generation preconditions.
+ * Plug it in with {@link com.flysystem.adapter.gcs.GCSAdapter.Builder#setEmulator(StorageEmulator)}.
+ * <p>
+ * Responses are delayed by a {@link Latency} per {@link Operation}, a fraction of them can fail with a 429 or 503,
+ * the next few can be failed on purpose, and the bytes of every request and response can be capped to a bandwidth.
+ * Configure it before it is used.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class StorageEmulator extends HttpTransport
+{
+	private final static String TOKEN = "{\"access_token\":\"emulator\",\"token_type\":\"Bearer\",\"expires_in\":3600}";
+
+	public enum Operation
+	{
+		GET, DOWNLOAD, LIST, INSERT, DELETE, COPY, REWRITE, COMPOSE, BATCH
+	}
+
+	private final StorageApi api;
+	private final Map<Operation, Latency> latencies = new EnumMap<>(Operation.class);
+	private double tooManyRequestsRate;
+	private double unavailableRate;
+	private long bytesPerSecond;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong faults = new AtomicLong();
+	private final AtomicInteger failNext = new AtomicInteger();
+	private volatile int failNextStatusCode;
+	private volatile Operation failNextOperation;
+
+	public StorageEmulator()
+	{
+		this(false);
+	}
+
+	/**
+	 * @param offHeap keep the contents of objects in direct buffers, so large data sets do not burden the garbage collector.
+	 */
+	public StorageEmulator(boolean offHeap)
+	{
+		this.api = new StorageApi(this, offHeap);
+		for (Operation operation : Operation.values()) latencies.put(operation, Latency.NONE);
+	}
+
+	/**
+	 * @param latency the latency of every operation.
+	 * @return StorageEmulator
+	 */
+	public StorageEmulator setLatency(Latency latency)
+	{
+		for (Operation operation : Operation.values()) latencies.put(operation, latency);
+		return this;
+	}
+
+	public StorageEmulator setLatency(Operation operation, Latency latency)
+	{
+		latencies.put(operation, latency);
+		return this;
+	}
+
+	/**
+	 * @param tooManyRequestsRate the fraction of requests answered with 429 Too Many Requests.
+	 * @param unavailableRate     the fraction of requests answered with 503 Service Unavailable.
+	 * @return StorageEmulator
+	 */
+	public StorageEmulator setFaults(double tooManyRequestsRate, double unavailableRate)
+	{
+		if (tooManyRequestsRate < 0 || unavailableRate < 0 || tooManyRequestsRate + unavailableRate > 1) {
+			throw new IllegalArgumentException("The fault rates have to be fractions that add up to at most 1.");
+		}
+		this.tooManyRequestsRate = tooManyRequestsRate;
+		this.unavailableRate = unavailableRate;
+		return this;
+	}
+
+	/**
+	 * Answers the next requests with an error, to fail a specific step of an exchange rather than a random one.
+	 *
+	 * @param requests   the number of requests to fail.
+	 * @param statusCode the status code they are answered with.
+	 * @return StorageEmulator
+	 */
+	public StorageEmulator failNext(int requests, int statusCode)
+	{
+		return failNext(null, requests, statusCode);
+	}
+
+	/**
+	 * Answers the next requests of an operation with an error, also when they are part of a batch.
+	 *
+	 * @param operation  the operation whose requests fail.
+	 * @param requests   the number of requests to fail.
+	 * @param statusCode the status code they are answered with.
+	 * @return StorageEmulator
+	 */
+	public StorageEmulator failNext(Operation operation, int requests, int statusCode)
+	{
+		if (requests < 0 || statusCode < 400) throw new IllegalArgumentException("The number of requests can not be negative and the status code has to be an error.");
+		failNextOperation = operation;
+		failNextStatusCode = statusCode;
+		failNext.set(requests);
+		return this;
+	}
+
+	/**
+	 * @param bytesPerSecond the rate at which each request and response body is transferred, 0 is unlimited.
+	 * @return StorageEmulator
+	 */
+	public StorageEmulator setBandwidth(long bytesPerSecond)
+	{
+		if (bytesPerSecond < 0) throw new IllegalArgumentException("The bandwidth can not be negative.");
+		this.bytesPerSecond = bytesPerSecond;
+		return this;
+	}
+
+	/**
+	 * @return the number of requests received, including the failed ones but not the requests inside batches.
+	 */
+	public long getRequests()
+	{
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of injected error responses.
+	 */
+	public long getFaults()
+	{
+		return faults.get();
+	}
+
+	/**
+	 * @return the number of stored objects.
+	 */
+	public int size()
+	{
+		return api.size();
+	}
+
+	/**
+	 * Deletes every object and upload session.
+	 */
+	public void clear()
+	{
+		api.clear();
+	}
+
+	@Override
+	public boolean supportsMethod(String method)
+	{
+		return true;
+	}
+
+	@Override
+	protected LowLevelHttpRequest buildRequest(String method, String url)
+	{
+		return new EmulatorRequest(this, method, url);
+	}
+
+	EmulatorResponse execute(String method, String url, Map<String, String> headers, byte[] body) throws IOException
+	{
+		if (url.contains("oauth2") || url.endsWith("/token")) return EmulatorResponse.json(200, TOKEN);
+		requests.incrementAndGet();
+		Operation operation = StorageApi.operation(method, url);
+		pause(latencies.get(operation).nextNanos() + transferNanos(body.length));
+		EmulatorResponse failure = failNext(operation);
+		if (failure != null) return failure;
+		double fault = ThreadLocalRandom.current().nextDouble();
+		if (fault < tooManyRequestsRate + unavailableRate) {
+			faults.incrementAndGet();
+			return fault < tooManyRequestsRate ? EmulatorResponse.error(429, "Too Many Requests") : EmulatorResponse.error(503, "Service Unavailable");
+		}
+		EmulatorResponse response = api.handle(method, url, headers, body);
+		pause(transferNanos(response.size()));
+		return response;
+	}
+
+	/**
+	 * @return the error to answer a request of the operation with, or null when it is not meant to fail.
+	 */
+	EmulatorResponse failNext(Operation operation)
+	{
+		Operation failing = failNextOperation;
+		if ((failing != null && failing != operation) || !decrementIfPositive(failNext)) return null;
+		faults.incrementAndGet();
+		return EmulatorResponse.error(failNextStatusCode, "Injected fault");
+	}
+
+	private static boolean decrementIfPositive(AtomicInteger counter)
+	{
+		for (int current = counter.get(); current > 0; current = counter.get()) {
+			if (counter.compareAndSet(current, current - 1)) return true;
+		}
+		return false;
+	}
+
+	private long transferNanos(long bytes)
+	{
+		return bytesPerSecond == 0 ? 0 : bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+	}
+
+	private static void pause(long nanos)
+	{
+		long deadline = System.nanoTime() + nanos;
+		for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+			LockSupport.parkNanos(remaining);
+		}
+	}
+}
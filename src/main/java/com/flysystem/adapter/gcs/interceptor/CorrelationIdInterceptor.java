@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.interceptor;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.common.base.Supplier;
+
+import java.util.UUID;
+
+/**
+ * Adds a correlation id header to every request, the same one for all its attempts, so a request can be followed
+ * through proxies and logs. GCS ignores the header.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class CorrelationIdInterceptor extends RequestInterceptor
+{
+	public final static String DEFAULT_HEADER = "X-Correlation-Id";
+
+	private final String header;
+	private final Supplier<String> ids;
+
+	/**
+	 * Sends a random id per request in the {@value #DEFAULT_HEADER} header.
+	 */
+	public CorrelationIdInterceptor()
+	{
+		this(DEFAULT_HEADER, new Supplier<String>()
+		{
+			public String get()
+			{
+				return UUID.randomUUID().toString();
+			}
+		});
+	}
+
+	/**
+	 * @param ids called once per request, e.g. to pass on the id of the work the calling thread does.
+	 *            Nothing is sent when it returns null.
+	 */
+	public CorrelationIdInterceptor(String header, Supplier<String> ids)
+	{
+		this.header = header;
+		this.ids = ids;
+	}
+
+	@Override
+	public void initialize(HttpRequest request)
+	{
+		String id = ids.get();
+		if (id != null) request.getHeaders().set(header, id);
+	}
+}
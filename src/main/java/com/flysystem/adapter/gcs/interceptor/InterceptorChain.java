@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.interceptor;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs {@link RequestInterceptor}s on the hooks of the HTTP client, around the interceptors and handlers already
+ * installed on a request, such as those of the credential and the retry policy. The adapter installs it last when it
+ * initializes a request; a client set with {@code GCSAdapter.Builder#setClient} can use it as its request initializer,
+ * or call {@link #install(HttpRequest)} from its own.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class InterceptorChain implements HttpRequestInitializer
+{
+	private final List<RequestInterceptor> interceptors;
+
+	public InterceptorChain(List<RequestInterceptor> interceptors)
+	{
+		this.interceptors = Collections.unmodifiableList(new ArrayList<>(interceptors));
+	}
+
+	public boolean isEmpty()
+	{
+		return interceptors.isEmpty();
+	}
+
+	public void initialize(HttpRequest request) throws IOException
+	{
+		install(request);
+	}
+
+	public void install(HttpRequest request) throws IOException
+	{
+		if (interceptors.isEmpty()) return;
+		for (RequestInterceptor interceptor : interceptors) interceptor.initialize(request);
+		final RequestTiming timing = new RequestTiming();
+		final HttpExecuteInterceptor execute = request.getInterceptor();
+		request.setInterceptor(new HttpExecuteInterceptor()
+		{
+			public void intercept(HttpRequest request) throws IOException
+			{
+				if (execute != null) execute.intercept(request);
+				timing.attempt();
+				for (RequestInterceptor interceptor : interceptors) interceptor.intercept(request, timing);
+			}
+		});
+		final HttpUnsuccessfulResponseHandler unsuccessful = request.getUnsuccessfulResponseHandler();
+		request.setUnsuccessfulResponseHandler(new HttpUnsuccessfulResponseHandler()
+		{
+			public boolean handleResponse(HttpRequest request, HttpResponse response, boolean supportsRetry) throws IOException
+			{
+				// before the handler, which backs off before returning
+				timing.responded();
+				boolean retry = unsuccessful != null && unsuccessful.handleResponse(request, response, supportsRetry);
+				// the response interceptor only sees the response that is finally returned
+				if (retry) interceptResponse(request, response, timing);
+				return retry;
+			}
+		});
+		final HttpResponseInterceptor responseInterceptor = request.getResponseInterceptor();
+		final HttpRequest intercepted = request;
+		request.setResponseInterceptor(new HttpResponseInterceptor()
+		{
+			public void interceptResponse(HttpResponse response) throws IOException
+			{
+				if (responseInterceptor != null) responseInterceptor.interceptResponse(response);
+				timing.responded();
+				InterceptorChain.this.interceptResponse(intercepted, response, timing);
+			}
+		});
+	}
+
+	private void interceptResponse(HttpRequest request, HttpResponse response, RequestTiming timing) throws IOException
+	{
+		for (RequestInterceptor interceptor : interceptors) interceptor.interceptResponse(request, response, timing);
+	}
+}
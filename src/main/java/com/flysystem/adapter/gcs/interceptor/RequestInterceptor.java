@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.interceptor;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+
+import java.io.IOException;
+
+/**
+ * A link of the {@link InterceptorChain} every request of the adapter passes. Interceptors are called in the order
+ * they were added and are shared by all requests, so they have to be thread safe. Override what is needed, by default
+ * nothing is done. An IOException thrown by an interceptor fails the request.
+ *
+ * @author Zeger Hoogeboom
+ */
+public abstract class RequestInterceptor
+{
+	/**
+	 * Called once when the request is built, before its url is complete.
+	 */
+	public void initialize(HttpRequest request) throws IOException
+	{
+	}
+
+	/**
+	 * Called before every attempt, including retries, once the url is complete. Timeouts and headers set here
+	 * apply to this attempt. Requests queued in a batch are intercepted when the batch is sent, their responses
+	 * arrive as part of the response of the batch and are not passed to {@link #interceptResponse}.
+	 */
+	public void intercept(HttpRequest request, RequestTiming timing) throws IOException
+	{
+	}
+
+	/**
+	 * Called for every response once its headers are in, also for failed attempts that are retried.
+	 * The body has not been read yet.
+	 */
+	public void interceptResponse(HttpRequest request, HttpResponse response, RequestTiming timing) throws IOException
+	{
+	}
+}
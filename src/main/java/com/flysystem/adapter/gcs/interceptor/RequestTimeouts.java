@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.interceptor;
+
+import com.google.api.client.http.HttpRequest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Overrides the timeouts of the builder per type of request, e.g. a short read timeout for metadata lookups and a long
+ * one for downloads. Configure it before handing it to the builder.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class RequestTimeouts extends RequestInterceptor
+{
+	private final Map<RequestType, int[]> timeouts = new EnumMap<>(RequestType.class);
+
+	/**
+	 * @param connectTimeoutMillis the timeout to establish a connection, 0 means infinite.
+	 * @param readTimeoutMillis    the timeout between two reads of the response, 0 means infinite.
+	 * @return RequestTimeouts
+	 */
+	public RequestTimeouts set(RequestType type, int connectTimeoutMillis, int readTimeoutMillis)
+	{
+		if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) throw new IllegalArgumentException("Timeouts can not be negative.");
+		timeouts.put(type, new int[]{connectTimeoutMillis, readTimeoutMillis});
+		return this;
+	}
+
+	@Override
+	public void intercept(HttpRequest request, RequestTiming timing)
+	{
+		int[] timeout = timeouts.get(RequestType.of(request));
+		if (timeout == null) return;
+		request.setConnectTimeout(timeout[0]);
+		request.setReadTimeout(timeout[1]);
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.interceptor;
+
+/**
+ * Where the time of one request went, as far as it can be seen from the HTTP client. The current attempt is split into
+ * the time before it, spent on earlier attempts and backing off, and the time until the response headers came in,
+ * which covers waiting for a connection, sending the body and the time GCS took. Reading the response body happens
+ * after the interceptors are called.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class RequestTiming
+{
+	private int attempts;
+	private long firstAttemptNanos;
+	private long attemptNanos;
+	private long responseNanos;
+
+	void attempt()
+	{
+		attemptNanos = System.nanoTime();
+		if (attempts++ == 0) firstAttemptNanos = attemptNanos;
+		responseNanos = 0;
+	}
+
+	/**
+	 * @return false when the response of the current attempt was already recorded.
+	 */
+	boolean responded()
+	{
+		if (responseNanos != 0) return false;
+		responseNanos = System.nanoTime();
+		return true;
+	}
+
+	/**
+	 * @return the number of the current attempt, 1 for the first one.
+	 */
+	public int getAttempts()
+	{
+		return attempts;
+	}
+
+	/**
+	 * @return the time spent on earlier attempts and backing off before the current attempt.
+	 */
+	public long getRetryNanos()
+	{
+		return attemptNanos - firstAttemptNanos;
+	}
+
+	/**
+	 * @return the time from sending the current attempt until its response headers came in, or 0 before that.
+	 */
+	public long getTimeToResponseNanos()
+	{
+		return responseNanos == 0 ? 0 : responseNanos - attemptNanos;
+	}
+
+	/**
+	 * @return the time since the first attempt was sent until the latest response, including retries.
+	 */
+	public long getElapsedNanos()
+	{
+		return getRetryNanos() + getTimeToResponseNanos();
+	}
+}
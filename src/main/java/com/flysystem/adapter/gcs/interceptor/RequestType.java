@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.interceptor;
+
+import com.google.api.client.http.HttpRequest;
+
+/**
+ * The kind of JSON API call a request makes, told apart by its method and url.
+ *
+ * @author Zeger Hoogeboom
+ */
+public enum RequestType
+{
+	METADATA, DOWNLOAD, LIST, UPLOAD, WRITE, DELETE, REWRITE, BATCH, OTHER;
+
+	/**
+	 * Only reliable from {@link RequestInterceptor#intercept(HttpRequest, RequestTiming)} on, the url is completed
+	 * when the request executes.
+	 */
+	public static RequestType of(HttpRequest request)
+	{
+		if (request.getUrl() == null) return OTHER;
+		String path = request.getUrl().getRawPath();
+		String method = request.getRequestMethod();
+		if (path == null) return OTHER;
+		if (path.endsWith("/batch")) return BATCH;
+		if (!path.contains("/storage/")) return OTHER;
+		if (path.startsWith("/upload/")) return UPLOAD;
+		if (method.equals("DELETE")) return DELETE;
+		if (path.contains("/rewriteTo/") || path.contains("/copyTo/") || path.endsWith("/compose")) return REWRITE;
+		if (method.equals("GET")) {
+			if ("media".equals(request.getUrl().getFirst("alt"))) return DOWNLOAD;
+			return path.endsWith("/o") ? LIST : METADATA;
+		}
+		return WRITE;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.interceptor;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Logs a sample of the requests whose response took longer than a threshold, including retries, with a breakdown of
+ * where the time went. Override {@link #report(HttpRequest, HttpResponse, RequestTiming)} to send them elsewhere.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class SlowRequestSampler extends RequestInterceptor
+{
+	private final static Logger logger = Logger.getLogger(SlowRequestSampler.class.getName());
+	private final static double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final long thresholdNanos;
+	private final int sampleOneIn;
+	private final AtomicLong slowRequests = new AtomicLong();
+
+	/**
+	 * @param sampleOneIn 1 reports every slow request, n reports one in n.
+	 */
+	public SlowRequestSampler(long threshold, TimeUnit unit, int sampleOneIn)
+	{
+		if (threshold < 0 || sampleOneIn < 1) throw new IllegalArgumentException("The threshold can not be negative and the sample rate has to be positive.");
+		this.thresholdNanos = unit.toNanos(threshold);
+		this.sampleOneIn = sampleOneIn;
+	}
+
+	@Override
+	public void interceptResponse(HttpRequest request, HttpResponse response, RequestTiming timing)
+	{
+		if (timing.getElapsedNanos() < thresholdNanos) return;
+		if (slowRequests.getAndIncrement() % sampleOneIn == 0) report(request, response, timing);
+	}
+
+	/**
+	 * @return the number of slow requests seen, sampled or not.
+	 */
+	public long getSlowRequests()
+	{
+		return slowRequests.get();
+	}
+
+	protected void report(HttpRequest request, HttpResponse response, RequestTiming timing)
+	{
+		logger.warning(String.format("Slow %s request %s %s: %d after %.1f ms, attempt %d took %.1f ms to respond after %.1f ms of earlier attempts",
+				RequestType.of(request), request.getRequestMethod(), request.getUrl().getRawPath(), response.getStatusCode(),
+				timing.getElapsedNanos() / NANOS_PER_MILLI, timing.getAttempts(), timing.getTimeToResponseNanos() / NANOS_PER_MILLI,
+				timing.getRetryNanos() / NANOS_PER_MILLI));
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps every metric in memory in atomic counters and {@link LatencyHistogram}s, indexed by enum ordinal so recording
+ * never allocates, and exposes them as MXBeans: one for the requests of the adapter and one per operation.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class JmxMetrics implements MetricsRecorder
+{
+	public final static String DOMAIN = "com.flysystem.adapter.gcs";
+	private final static int STATUS_CODES = 600;
+	private final static double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+	private final static AtomicInteger instances = new AtomicInteger();
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+	private final AtomicLongArray failures = new AtomicLongArray(Operation.values().length);
+	private final AtomicLongArray inFlight = new AtomicLongArray(Operation.values().length);
+	private final AtomicLongArray responses = new AtomicLongArray(STATUS_CODES);
+	private final AtomicLongArray cacheHits = new AtomicLongArray(CacheKind.values().length);
+	private final AtomicLongArray cacheMisses = new AtomicLongArray(CacheKind.values().length);
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong checksumBytes = new AtomicLong();
+	private final AtomicLong checksumNanos = new AtomicLong();
+	private final AtomicLong checksumMismatches = new AtomicLong();
+	private final List<ObjectName> registered = new ArrayList<>();
+	private MBeanServer server;
+
+	public JmxMetrics()
+	{
+		for (int i = 0; i < latencies.length; i++) latencies[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * Registers the MXBeans as {@value #DOMAIN}:type=GCSAdapter,name={@code name},instance=n and, per operation,
+	 * {@value #DOMAIN}:type=GCSAdapter,name={@code name},instance=n,operation=..., where n tells apart adapters of the same name.
+	 */
+	public synchronized void register(MBeanServer server, String name) throws JMException
+	{
+		if (this.server != null) throw new IllegalStateException("Already registered.");
+		this.server = server;
+		String prefix = DOMAIN + ":type=GCSAdapter,name=" + ObjectName.quote(name) + ",instance=" + instances.incrementAndGet();
+		try {
+			register(new ObjectName(prefix), new AdapterMetrics());
+			for (Operation operation : Operation.values()) {
+				register(new ObjectName(prefix + ",operation=" + operation.name().toLowerCase()), new OperationMetrics(operation));
+			}
+		} catch (JMException e) {
+			unregister();
+			throw e;
+		}
+	}
+
+	private void register(ObjectName name, Object mxBean) throws JMException
+	{
+		server.registerMBean(mxBean, name);
+		registered.add(name);
+	}
+
+	public synchronized void unregister()
+	{
+		if (server == null) return;
+		for (ObjectName name : registered) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException ignored) {
+				// already unregistered by someone else
+			}
+		}
+		registered.clear();
+		server = null;
+	}
+
+	public void operationStarted(Operation operation)
+	{
+		inFlight.incrementAndGet(operation.ordinal());
+	}
+
+	public void operationFinished(Operation operation, long nanos, boolean success)
+	{
+		inFlight.decrementAndGet(operation.ordinal());
+		latencies[operation.ordinal()].record(nanos);
+		if (!success) failures.incrementAndGet(operation.ordinal());
+	}
+
+	public void requestSent(long bytes)
+	{
+		requests.incrementAndGet();
+		if (bytes > 0) bytesOut.addAndGet(bytes);
+	}
+
+	public void responseReceived(int statusCode, long bytes)
+	{
+		if (statusCode >= 0 && statusCode < STATUS_CODES) responses.incrementAndGet(statusCode);
+		if (bytes > 0) bytesIn.addAndGet(bytes);
+	}
+
+	public void retried()
+	{
+		retries.incrementAndGet();
+	}
+
+	public void cacheHit(CacheKind cache)
+	{
+		cacheHits.incrementAndGet(cache.ordinal());
+	}
+
+	public void cacheMiss(CacheKind cache)
+	{
+		cacheMisses.incrementAndGet(cache.ordinal());
+	}
+
+	public void checksummed(long bytes, long nanos)
+	{
+		checksumBytes.addAndGet(bytes);
+		checksumNanos.addAndGet(nanos);
+	}
+
+	public void checksumMismatch()
+	{
+		checksumMismatches.incrementAndGet();
+	}
+
+	public LatencyHistogram getLatency(Operation operation)
+	{
+		return latencies[operation.ordinal()];
+	}
+
+	public long getFailures(Operation operation)
+	{
+		return failures.get(operation.ordinal());
+	}
+
+	public long getInFlight(Operation operation)
+	{
+		return inFlight.get(operation.ordinal());
+	}
+
+	public long getResponses(int statusCode)
+	{
+		return responses.get(statusCode);
+	}
+
+	public long getCacheHits(CacheKind cache)
+	{
+		return cacheHits.get(cache.ordinal());
+	}
+
+	public long getCacheMisses(CacheKind cache)
+	{
+		return cacheMisses.get(cache.ordinal());
+	}
+
+	public long getRequests()
+	{
+		return requests.get();
+	}
+
+	public long getRetries()
+	{
+		return retries.get();
+	}
+
+	public long getBytesIn()
+	{
+		return bytesIn.get();
+	}
+
+	public long getBytesOut()
+	{
+		return bytesOut.get();
+	}
+
+	private class AdapterMetrics implements AdapterMetricsMXBean
+	{
+		public long getRequests()
+		{
+			return requests.get();
+		}
+
+		public long getRetries()
+		{
+			return retries.get();
+		}
+
+		public long getErrors()
+		{
+			long errors = 0;
+			for (int status = 400; status < STATUS_CODES; status++) errors += responses.get(status);
+			return errors;
+		}
+
+		public Map<Integer, Long> getResponsesByStatus()
+		{
+			Map<Integer, Long> byStatus = new TreeMap<>();
+			for (int status = 0; status < STATUS_CODES; status++) {
+				if (responses.get(status) > 0) byStatus.put(status, responses.get(status));
+			}
+			return byStatus;
+		}
+
+		public long getBytesIn()
+		{
+			return bytesIn.get();
+		}
+
+		public long getBytesOut()
+		{
+			return bytesOut.get();
+		}
+
+		public long getExistenceCacheHits()
+		{
+			return cacheHits.get(CacheKind.EXISTENCE.ordinal());
+		}
+
+		public long getExistenceCacheMisses()
+		{
+			return cacheMisses.get(CacheKind.EXISTENCE.ordinal());
+		}
+
+		public long getContentCacheHits()
+		{
+			return cacheHits.get(CacheKind.CONTENT.ordinal());
+		}
+
+		public long getContentCacheMisses()
+		{
+			return cacheMisses.get(CacheKind.CONTENT.ordinal());
+		}
+
+		public long getChecksumBytes()
+		{
+			return checksumBytes.get();
+		}
+
+		public double getChecksumMillis()
+		{
+			return checksumNanos.get() / NANOS_PER_MILLI;
+		}
+
+		public long getChecksumMismatches()
+		{
+			return checksumMismatches.get();
+		}
+	}
+
+	private class OperationMetrics implements OperationMetricsMXBean
+	{
+		private final Operation operation;
+
+		OperationMetrics(Operation operation)
+		{
+			this.operation = operation;
+		}
+
+		public long getCount()
+		{
+			return latencies[operation.ordinal()].getCount();
+		}
+
+		public long getFailures()
+		{
+			return failures.get(operation.ordinal());
+		}
+
+		public long getInFlight()
+		{
+			return inFlight.get(operation.ordinal());
+		}
+
+		public double getMeanMillis()
+		{
+			return latencies[operation.ordinal()].getMean() / NANOS_PER_MILLI;
+		}
+
+		public double get50thPercentileMillis()
+		{
+			return latencies[operation.ordinal()].getValueAtPercentile(50) / NANOS_PER_MILLI;
+		}
+
+		public double get95thPercentileMillis()
+		{
+			return latencies[operation.ordinal()].getValueAtPercentile(95) / NANOS_PER_MILLI;
+		}
+
+		public double get99thPercentileMillis()
+		{
+			return latencies[operation.ordinal()].getValueAtPercentile(99) / NANOS_PER_MILLI;
+		}
+
+		public double getMaxMillis()
+		{
+			return latencies[operation.ordinal()].getMax() / NANOS_PER_MILLI;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram with log-linear buckets in the style of HdrHistogram. Every power of two is split into
+ * 64 linear buckets, so any recorded value is reported within 1.6% while the whole range of a long fits in
+ * 3712 counters. Recording is a few atomic increments and never allocates.
+ *
+ * @author Zeger Hoogeboom
+ */
+public class LatencyHistogram
+{
+	private final static int SUB_BUCKET_BITS = 6;
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// values below 2 * SUB_BUCKETS are counted exactly, then 64 buckets for each further power of two
+	private final static int BUCKETS = 2 * SUB_BUCKETS + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value)
+	{
+		if (value < 0) value = 0;
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			// another thread raised the maximum in between, try again
+		}
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	public double getMean()
+	{
+		long count = this.count.get();
+		return count == 0 ? 0 : (double) sum.get() / count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100.
+	 * @return the highest value of the bucket holding the percentile, or 0 when nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long total = count.get();
+		if (total == 0) return 0;
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long cumulative = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulative += counts.get(i);
+			if (cumulative >= target) return Math.min(highestValue(i), max.get());
+		}
+		return max.get();
+	}
+
+	static int index(long value)
+	{
+		if (value < 2 * SUB_BUCKETS) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	static long highestValue(int index)
+	{
+		if (index < 2 * SUB_BUCKETS) return index;
+		int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+		long subBucket = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.metrics;
+
+/**
+ * Receives what the adapter measures. Implementations are called on the hot path from many threads at once,
+ * so they have to be thread safe and should neither block nor allocate. By default nothing is recorded ({@link #NOOP});
+ * GCSAdapter.Builder#setJmxMetrics(true) records into {@link JmxMetrics} instead.
+ *
+ * @author Zeger Hoogeboom
+ */
+public interface MetricsRecorder
+{
+	MetricsRecorder NOOP = new MetricsRecorder()
+	{
+		public void operationStarted(Operation operation) {}
+
+		public void operationFinished(Operation operation, long nanos, boolean success) {}
+
+		public void requestSent(long bytes) {}
+
+		public void responseReceived(int statusCode, long bytes) {}
+
+		public void retried() {}
+
+		public void cacheHit(CacheKind cache) {}
+
+		public void cacheMiss(CacheKind cache) {}
+
+		public void checksummed(long bytes, long nanos) {}
+
+		public void checksumMismatch() {}
+	};
+
+	void operationStarted(Operation operation);
+
+	/**
+	 * @param nanos   the duration of the operation, including its retries.
+	 * @param success false when the operation threw.
+	 */
+	void operationFinished(Operation operation, long nanos, boolean success);
+
+	/**
+	 * Called for every HTTP request, also for retries.
+	 * @param bytes the length of the request body, or -1 when not known up front.
+	 */
+	void requestSent(long bytes);
+
+	/**
+	 * @param bytes the length of the response body, or -1 when not known.
+	 */
+	void responseReceived(int statusCode, long bytes);
+
+	/**
+	 * Called when a failed request is sent again.
+	 */
+	void retried();
+
+	void cacheHit(CacheKind cache);
+
+	void cacheMiss(CacheKind cache);
+
+	/**
+	 * @param nanos the time spent hashing {@code bytes}.
+	 */
+	void checksummed(long bytes, long nanos);
+
+	void checksumMismatch();
+}
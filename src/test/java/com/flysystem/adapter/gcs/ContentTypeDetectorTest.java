@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class ContentTypeDetectorTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	ContentTypeDetector detector = new ContentTypeDetector(false);
+
+	private String sniff(String contents)
+	{
+		byte[] bytes = contents.getBytes(StandardCharsets.ISO_8859_1);
+		return detector.sniff(bytes, bytes.length);
+	}
+
+	@Test
+	public void extensions()
+	{
+		assertEquals("image/png", ContentTypeDetector.fromExtension("dir/image.png"));
+		assertEquals("image/jpeg", ContentTypeDetector.fromExtension("IMAGE.JPG"));
+		assertEquals("application/json", ContentTypeDetector.fromExtension("a.b/data.json"));
+		assertNull(ContentTypeDetector.fromExtension("a.b/data"));
+		assertNull(ContentTypeDetector.fromExtension("file."));
+		assertNull(ContentTypeDetector.fromExtension("file.unknown"));
+	}
+
+	@Test
+	public void binarySignatures()
+	{
+		assertEquals("image/png", sniff("\u0089PNG\r\n\u001a\n\u0000\u0000\u0000\rIHDR"));
+		assertEquals("image/jpeg", sniff("\u00ff\u00d8\u00ff\u00e0\u0000\u0010JFIF"));
+		assertEquals("application/pdf", sniff("%PDF-1.4\n"));
+		assertEquals("application/gzip", sniff("\u001f\u008b\u0008\u0000"));
+		byte[] tar = new byte[512];
+		System.arraycopy("ustar".getBytes(StandardCharsets.US_ASCII), 0, tar, 257, 5);
+		assertEquals("application/x-tar", detector.sniff(tar, tar.length));
+	}
+
+	@Test
+	public void text()
+	{
+		assertEquals("text/plain", sniff("hello world"));
+		assertEquals("application/json", sniff("  {\"a\": 1}"));
+		assertEquals("application/json", sniff("[1, 2]"));
+		assertEquals("text/plain", sniff("[section]\nkey=value"));
+		assertEquals("application/xml", sniff("<?xml version=\"1.0\"?><a/>"));
+		assertEquals("image/svg+xml", sniff("<svg xmlns=\"http://www.w3.org/2000/svg\"/>"));
+		assertEquals("text/html", sniff("\n<!DOCTYPE html><html></html>"));
+		assertEquals("application/json", sniff("\u00ef\u00bb\u00bf{}"));
+		byte[] utf8 = "h\u00e9llo w\u00f6rld".getBytes(StandardCharsets.UTF_8);
+		assertEquals("text/plain", detector.sniff(utf8, utf8.length));
+		// a multi-byte character cut off by the end of the prefix
+		assertEquals("text/plain", detector.sniff(utf8, 2));
+	}
+
+	@Test
+	public void unknownBinary()
+	{
+		byte[] random = new byte[8192];
+		new Random(1).nextBytes(random);
+		random[0] = 0;
+		assertNull(detector.sniff(random, random.length));
+		assertNull(detector.sniff(new byte[0], 0));
+	}
+
+	@Test
+	public void magicForTheRest()
+	{
+		ContentTypeDetector magic = new ContentTypeDetector(true);
+		magic.warmUp();
+		byte[] classFile = {(byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe, 0, 0, 0, 50, 1, 2};
+		assertEquals("application/java", magic.sniff(classFile, classFile.length));
+		// cached
+		assertEquals("application/java", magic.sniff(classFile, classFile.length));
+		byte[] elf = {0x7f, 'E', 'L', 'F', 2, 1, 1, 0, 0, 0};
+		assertNull(magic.sniff(elf, elf.length));
+	}
+
+	@Test
+	public void streamsArePeekedWithoutConsumingThem() throws IOException
+	{
+		byte[] contents = new byte[3 * ContentTypeDetector.SNIFF_BYTES];
+		byte[] png = "\u0089PNG\r\n\u001a\n".getBytes(StandardCharsets.ISO_8859_1);
+		System.arraycopy(png, 0, contents, 0, png.length);
+		PushbackInputStream in = new PushbackInputStream(new ByteArrayInputStream(contents), ContentTypeDetector.SNIFF_BYTES);
+		assertEquals("image/png", detector.sniff(in));
+		assertTrue(Arrays.equals(contents, IOUtils.toByteArray(in)));
+
+		PushbackInputStream small = new PushbackInputStream(new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), ContentTypeDetector.SNIFF_BYTES);
+		assertEquals("application/json", detector.sniff(small));
+		assertEquals("{}", IOUtils.toString(small, "UTF-8"));
+	}
+
+	@Test
+	public void files() throws IOException
+	{
+		Path file = folder.newFile("data").toPath();
+		Files.write(file, "%PDF-1.7".getBytes(StandardCharsets.US_ASCII));
+		assertEquals("application/pdf", detector.sniff(file));
+	}
+}
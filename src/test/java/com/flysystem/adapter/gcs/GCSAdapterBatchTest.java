@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.core.FileMetadata;
+import com.flysystem.core.exception.FileNotFoundException;
+import com.flysystem.core.exception.FlysystemGenericException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Runs batch operations against the emulator.
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterBatchTest
+{
+	StorageEmulator emulator;
+	GCSTestHelper.RequestLog log;
+	GCSAdapter adapter;
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		log = new GCSTestHelper.RequestLog();
+		adapter = GCSTestHelper.builder(emulator)
+				.addInterceptor(log)
+				.setRetryPolicy(new RetryPolicy(3, 1, 2, 1.0, 0))
+				.build();
+		for (int i = 0; i < 150; i++) adapter.write("dir/" + i, "contents");
+		adapter.write("other", "contents");
+	}
+
+	@Test
+	public void deleteDirDeletesEverythingInBatches()
+	{
+		assertTrue(adapter.deleteDir("dir"));
+		assertEquals(2, log.count("/batch"));
+		assertEquals(1, emulator.size());
+		assertTrue(adapter.has("other"));
+	}
+
+	@Test
+	public void hasAllReportsMissingObjectsAsFalse()
+	{
+		BatchResult<Boolean> result = adapter.hasAll(Arrays.asList("other", "missing"));
+		assertTrue(result.isSuccessful());
+		assertTrue(result.getResults().get("other"));
+		assertFalse(result.getResults().get("missing"));
+	}
+
+	@Test
+	public void getMetadataReportsMissingObjectsAsErrors()
+	{
+		BatchResult<FileMetadata> result = adapter.getMetadata(Arrays.asList("other", "missing"));
+		assertEquals("other", result.getResults().get("other").getPath());
+		assertTrue(result.getErrors().get("missing") instanceof FileNotFoundException);
+		assertEquals(1, log.count("/batch"));
+	}
+
+	@Test
+	public void retryableFailuresAreSentInALaterBatch()
+	{
+		emulator.failNext(StorageEmulator.Operation.GET, 2, 429);
+		BatchResult<Boolean> result = adapter.hasAll(Arrays.asList("dir/1", "dir/2", "dir/3", "missing"));
+		assertTrue(result.isSuccessful());
+		assertTrue(result.getResults().get("dir/1"));
+		assertTrue(result.getResults().get("dir/2"));
+		assertFalse(result.getResults().get("missing"));
+		assertEquals(2, log.count("/batch"));
+		// only the two failed requests are sent again
+		assertEquals(4 + 2, log.count("GET ", "/b/test/o/"));
+	}
+
+	@Test
+	public void throttledDeletesAreSentAgain()
+	{
+		emulator.failNext(StorageEmulator.Operation.DELETE, 5, 503);
+		assertTrue(adapter.deleteDir("dir"));
+		assertEquals(1, emulator.size());
+	}
+
+	@Test
+	public void failuresAreReportedOnceTheRetriesAreExhausted()
+	{
+		emulator.failNext(StorageEmulator.Operation.GET, 3, 503);
+		BatchResult<FileMetadata> result = adapter.getMetadata(Arrays.asList("other"));
+		assertFalse(result.getErrors().get("other") instanceof FileNotFoundException);
+		assertTrue(result.getErrors().get("other") instanceof FlysystemGenericException);
+		assertEquals(3, log.count("/batch"));
+	}
+}
@@ -33,6 +33,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
 import java.util.logging.Logger;
 import java.util.logging.StreamHandler;
@@ -126,4 +127,28 @@ public class GCSAdapterBuilderTest
 				.build();
 		assertEquals(getTestCapturedLog(), "");
 	}
+
+	@Test
+	public void buildWithPooledTransportOptions() throws IOException
+	{
+		adapter = new GCSAdapter.Builder()
+				.setBucket("bucket")
+				.setServiceAccountEmail("clientId")
+				.setP12Key(p12)
+				.setApplicationName("applicationName")
+				.setConnectionPool(64, 64)
+				.setIdleConnectionTimeout(30, TimeUnit.SECONDS)
+				.setTcpNoDelay(true)
+				.setTimeouts(5000, 30000)
+				.build();
+		assertEquals(getTestCapturedLog(), "");
+		adapter.close();
+	}
+
+	@Test
+	public void buildWithInvalidConnectionPool()
+	{
+		thrown.expect(IllegalArgumentException.class);
+		new GCSAdapter.Builder().setConnectionPool(0, 10);
+	}
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.Config;
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Checks checksums against a mock serving "123456789", whose CRC32C is 0xE3069283. Unlike the emulator it can serve
+ * bytes or report checksums that do not match the object.
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterChecksumTest implements GCSTestHelper.Handler
+{
+	private final static String CONTENTS = "123456789";
+	private final static String CRC32C = "4waSgw==";
+	private final static String MD5 = "JfnnlDI7RTiF9RgfG2JNCw==";
+
+	HttpTransport transport;
+	String served;
+	String hashHeader;
+	String metadata;
+	String uploadedCrc32c;
+	boolean deleted;
+
+	@Before
+	public void setUp()
+	{
+		served = CONTENTS;
+		hashHeader = "crc32c=" + CRC32C + ",md5=" + MD5;
+		uploadedCrc32c = CRC32C;
+		transport = GCSTestHelper.transport(this);
+	}
+
+	private GCSAdapter adapter(boolean verifyChecksums)
+	{
+		return GCSTestHelper.builder(transport).setVerifyChecksums(verifyChecksums).build();
+	}
+
+	public synchronized LowLevelHttpResponse handle(String method, String url, MockLowLevelHttpRequest request) throws IOException
+	{
+		MockLowLevelHttpResponse response = new MockLowLevelHttpResponse().setContentType("application/json");
+		if (method.equals("DELETE")) {
+			assertTrue(url.contains("ifGenerationMatch=1"));
+			deleted = true;
+			return response.setStatusCode(204);
+		}
+		if (url.contains("uploadType=multipart")) {
+			metadata = GCSTestHelper.content(request);
+			return object();
+		}
+		if (url.contains("uploadType=resumable") && !url.contains("upload_id")) {
+			return response.addHeader("Location", url + "&upload_id=session");
+		}
+		if (url.contains("upload_id")) {
+			return object();
+		}
+		if (hashHeader != null) response.addHeader("x-goog-hash", hashHeader);
+		response.addHeader("Content-Length", String.valueOf(served.length()));
+		return response.setContentType("text/plain").setContent(served);
+	}
+
+	private MockLowLevelHttpResponse object()
+	{
+		return GCSTestHelper.json("{\"name\":\"file\",\"generation\":\"1\",\"crc32c\":\"" + uploadedCrc32c + "\",\"size\":\"9\",\"updated\":\"2015-01-01T00:00:00.000Z\"}");
+	}
+
+	@Test
+	public void writeSendsTheChecksumForTheServerToValidate()
+	{
+		GCSAdapter adapter = adapter(true);
+		assertTrue(adapter.write("file", CONTENTS));
+		assertTrue(metadata.contains("\"crc32c\":\"" + CRC32C + "\""));
+		assertEquals(9, adapter.getChecksums().getBytes());
+	}
+
+	@Test
+	public void readVerifiesWhileStreaming()
+	{
+		GCSAdapter adapter = adapter(true);
+		assertEquals(CONTENTS, adapter.read("file"));
+		hashHeader = "md5=" + MD5;
+		assertEquals(CONTENTS, adapter.read("file"));
+		assertEquals(0, adapter.getChecksums().getMismatches());
+	}
+
+	@Test
+	public void corruptReadFails()
+	{
+		GCSAdapter adapter = adapter(true);
+		served = "123456780";
+		try {
+			adapter.read("file");
+			fail();
+		} catch (FlysystemGenericException e) {
+			assertEquals(1, adapter.getChecksums().getMismatches());
+		}
+		hashHeader = "md5=" + MD5;
+		try {
+			adapter.read("file");
+			fail();
+		} catch (FlysystemGenericException e) {
+			assertEquals(2, adapter.getChecksums().getMismatches());
+		}
+	}
+
+	@Test
+	public void verificationCanBeSkipped()
+	{
+		GCSAdapter adapter = adapter(false);
+		served = "123456780";
+		assertEquals(served, adapter.read("file"));
+		assertTrue(adapter.write("file", CONTENTS));
+		assertTrue(!metadata.contains("crc32c"));
+		assertEquals(0, adapter.getChecksums().getBytes());
+	}
+
+	@Test
+	public void streamedUploadIsComparedAfterwards()
+	{
+		GCSAdapter adapter = adapter(true);
+		assertTrue(adapter.upload("file", new ByteArrayInputStream(CONTENTS.getBytes(StandardCharsets.UTF_8)), new Config()));
+		uploadedCrc32c = "AAAAAA==";
+		try {
+			adapter.upload("file", new ByteArrayInputStream(CONTENTS.getBytes(StandardCharsets.UTF_8)), new Config());
+			fail();
+		} catch (FlysystemGenericException e) {
+			assertTrue(deleted);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.core.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Runs composite uploads against the emulator, with parts small enough to need a tree of composes.
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterCompositeUploadTest
+{
+	StorageEmulator emulator;
+	GCSTestHelper.RequestLog log;
+	GCSAdapter adapter;
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		log = new GCSTestHelper.RequestLog();
+		adapter = GCSTestHelper.builder(emulator)
+				.addInterceptor(log)
+				.setCompositeUpload(100, 10, 4)
+				.build();
+	}
+
+	private static String contents(int length)
+	{
+		StringBuilder contents = new StringBuilder();
+		for (int i = 0; contents.length() < length; i++) contents.append(i).append(',');
+		return contents.substring(0, length);
+	}
+
+	@Test
+	public void largeFileIsComposedFromParts() throws IOException
+	{
+		String contents = contents(95 + 10);
+		Path file = Files.createTempFile("composite", null);
+		try {
+			Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+			assertTrue(adapter.upload("file", file, new Config()));
+		} finally {
+			Files.delete(file);
+		}
+
+		assertEquals(1, log.count("/compose"));
+		assertEquals(11, log.count("DELETE "));
+		assertEquals(1, emulator.size());
+		assertEquals(contents, adapter.read("file"));
+	}
+
+	@Test
+	public void manyPartsAreComposedInATree() throws IOException
+	{
+		String contents = contents(40 * 10 + 3);
+		Config config = new Config();
+		config.set("composite", true);
+
+		assertTrue(adapter.upload("file", new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)), config));
+
+		assertEquals(3, log.count("/compose"));
+		assertEquals(41 + 2, log.count("DELETE "));
+		assertEquals(1, emulator.size());
+		assertEquals(contents, adapter.read("file"));
+	}
+
+	@Test
+	public void smallFileIsASingleUpload() throws IOException
+	{
+		Path file = Files.createTempFile("composite", null);
+		try {
+			Files.write(file, contents(50).getBytes(StandardCharsets.UTF_8));
+			assertTrue(adapter.upload("file", file, new Config()));
+		} finally {
+			Files.delete(file);
+		}
+
+		assertEquals(0, log.count("/compose"));
+		assertEquals(0, log.count("DELETE "));
+		assertEquals(contents(50), adapter.read("file"));
+	}
+}
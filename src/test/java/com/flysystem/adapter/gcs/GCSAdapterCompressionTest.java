@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.core.Config;
+import com.google.api.services.storage.model.StorageObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Writes to the emulator, which stores objects as they were sent, and reads them back.
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterCompressionTest
+{
+	GCSAdapter adapter;
+
+	@Before
+	public void setUp()
+	{
+		adapter = GCSTestHelper.builder(new StorageEmulator())
+				.setGzipContentTypes("text/", "application/json")
+				.build();
+	}
+
+	private String contentEncoding()
+	{
+		return adapter.getObject("file", false).getContentEncoding();
+	}
+
+	private static String json(int records)
+	{
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < records; i++) json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"level\":\"info\"}");
+		return json.append("]").toString();
+	}
+
+	@Test
+	public void writeOfConfiguredContentTypeIsStoredGzipped()
+	{
+		String contents = json(1000);
+		assertTrue(adapter.write("file", contents));
+		StorageObject stored = adapter.getObject("file", false);
+		assertEquals("gzip", stored.getContentEncoding());
+		assertTrue(stored.getSize().longValue() * 5 < contents.length());
+		assertEquals(contents, adapter.read("file"));
+	}
+
+	@Test
+	public void configOverridesContentTypeRules()
+	{
+		Config config = new Config();
+		config.set("gzip", false);
+		assertTrue(adapter.write("file", json(10), config));
+		assertNull(contentEncoding());
+
+		config = new Config();
+		config.set("mimetype", "application/octet-stream");
+		assertTrue(adapter.write("file", json(10), config));
+		assertNull(contentEncoding());
+	}
+
+	@Test
+	public void streamIsCompressedWhileUploading()
+	{
+		String contents = json(100000);
+		Config config = new Config();
+		config.set("gzip", true);
+		assertTrue(adapter.upload("file", new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)), config));
+		assertEquals("gzip", contentEncoding());
+		assertEquals(contents, adapter.read("file"));
+	}
+
+	@Test
+	public void readDecompresses()
+	{
+		String contents = json(1000);
+		adapter.write("file", contents);
+		assertEquals(contents, adapter.read("file"));
+	}
+}
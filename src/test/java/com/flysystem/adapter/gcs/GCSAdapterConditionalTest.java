@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.exception.PreconditionFailedException;
+import com.flysystem.core.Config;
+import com.google.api.services.storage.model.StorageObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Runs conditional reads and writes against a single object in the emulator.
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterConditionalTest
+{
+	GCSAdapter adapter;
+	long generation;
+	String etag;
+
+	@Before
+	public void setUp()
+	{
+		adapter = GCSTestHelper.builder(new StorageEmulator()).build();
+		adapter.write("file", "hello");
+		StorageObject object = adapter.getObject("file", false);
+		generation = object.getGeneration();
+		etag = object.getEtag();
+	}
+
+	@Test
+	public void unchangedGenerationIsNotTransferred()
+	{
+		ConditionalRead read = adapter.readIfChanged("file", generation);
+		assertFalse(read.isModified());
+		assertNull(read.getContents());
+	}
+
+	@Test
+	public void changedGenerationIsRead()
+	{
+		ConditionalRead read = adapter.readIfChanged("file", generation - 1);
+		assertTrue(read.isModified());
+		assertEquals("hello", read.getContents());
+		assertEquals(Long.valueOf(generation), read.getGeneration());
+		assertEquals(etag, read.getEtag());
+	}
+
+	@Test
+	public void unchangedEtagIsNotTransferred()
+	{
+		assertFalse(adapter.readIfChanged("file", etag).isModified());
+		assertTrue(adapter.readIfChanged("file", "\"other\"").isModified());
+	}
+
+	@Test
+	public void deleteHonoursGenerationPrecondition()
+	{
+		Config config = new Config();
+		config.set("ifGenerationMatch", generation - 1);
+		try {
+			adapter.delete("file", config);
+			fail();
+		} catch (PreconditionFailedException e) {
+			assertTrue(adapter.has("file"));
+		}
+		config.set("ifGenerationMatch", generation);
+		assertTrue(adapter.delete("file", config));
+		assertFalse(adapter.has("file"));
+	}
+
+	@Test(expected = PreconditionFailedException.class)
+	public void writeHonoursGenerationPrecondition()
+	{
+		Config config = new Config();
+		config.set("ifGenerationMatch", 0L);
+		adapter.write("file", "data", config);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterDiskCacheTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	StorageEmulator emulator;
+	GCSTestHelper.RequestLog log;
+	GCSAdapter writer;
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		log = new GCSTestHelper.RequestLog();
+		writer = GCSTestHelper.builder(emulator).build();
+		writer.write("file", "file@1");
+		writer.write("first", "first@1");
+		writer.write("second", "second@1");
+	}
+
+	private GCSAdapter adapter(long maxBytes, long ttlSeconds)
+	{
+		return GCSTestHelper.builder(emulator)
+				.addInterceptor(log)
+				.setDiskCache(folder.getRoot().toPath(), maxBytes, ttlSeconds, TimeUnit.SECONDS)
+				.build();
+	}
+
+	private int downloads()
+	{
+		return log.count("alt=media");
+	}
+
+	private int metadata()
+	{
+		return log.count("GET ", "/b/test/o/") - downloads();
+	}
+
+	private int cachedFiles() throws IOException
+	{
+		return files("*.object");
+	}
+
+	private int files(String glob) throws IOException
+	{
+		int count = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath(), glob)) {
+			for (Path ignored : files) count++;
+		}
+		return count;
+	}
+
+	@Test
+	public void readsWithinTheTtlAreServedFromDisk()
+	{
+		GCSAdapter adapter = adapter(1024, 60);
+		assertEquals("file@1", adapter.read("file"));
+		assertEquals("file@1", adapter.read("file"));
+		assertEquals(1, metadata());
+		assertEquals(1, downloads());
+	}
+
+	@Test
+	public void newGenerationIsDownloadedAgain() throws IOException
+	{
+		GCSAdapter adapter = adapter(1024, 0);
+		assertEquals("file@1", adapter.read("file"));
+		assertEquals("file@1", adapter.read("file"));
+		assertEquals(1, downloads());
+
+		writer.write("file", "file@2");
+		assertEquals("file@2", adapter.read("file"));
+		assertEquals(2, downloads());
+		assertEquals(3, metadata());
+	}
+
+	@Test
+	public void leastRecentlyUsedFilesAreEvicted() throws IOException
+	{
+		GCSAdapter adapter = adapter(12, 60);
+		adapter.read("first");
+		adapter.read("second");
+		assertEquals(1, cachedFiles());
+		assertEquals(8, adapter.getContentCache().size());
+	}
+
+	@Test
+	public void cachedFilesAreSharedBetweenProcesses()
+	{
+		adapter(1024, 60).read("file");
+		assertEquals("file@1", adapter(1024, 60).read("file"));
+		assertEquals(1, downloads());
+	}
+
+	@Test
+	public void lockFilesAreRemovedOnceDownloaded() throws IOException
+	{
+		Files.createFile(folder.getRoot().toPath().resolve("left-behind.object.lock"));
+		GCSAdapter adapter = adapter(12, 60);
+		assertEquals(0, files("*.lock"));
+		adapter.read("first");
+		adapter.read("second");
+		assertEquals(0, files("*.lock"));
+	}
+
+	@Test
+	public void lockFilesOfDownloadsInProgressAreKept() throws IOException
+	{
+		Path lockFile = folder.getRoot().toPath().resolve("downloading.object.lock");
+		try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			 FileLock ignored = channel.lock()) {
+			adapter(12, 60);
+			assertTrue(Files.exists(lockFile));
+		}
+	}
+
+	@Test
+	public void streamIsReopenedWhenEvictedByAnotherProcess() throws IOException
+	{
+		GCSAdapter adapter = adapter(1024, 60);
+		adapter.read("file");
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath(), "*.object")) {
+			for (Path file : files) Files.delete(file);
+		}
+		try (InputStream stream = adapter.readInputStream("file")) {
+			assertEquals("file@1", IOUtils.toString(stream, "UTF-8"));
+		}
+		assertEquals(2, downloads());
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.interceptor.RequestTiming;
+import com.flysystem.core.Config;
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterDownloadTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	byte[] contents;
+	long generation;
+	GCSTestHelper.RequestLog log;
+	volatile boolean failFirstRange;
+	AtomicInteger servedRanges = new AtomicInteger();
+	GCSAdapter adapter;
+
+	@Before
+	public void setUp()
+	{
+		contents = new byte[1000];
+		new Random(7).nextBytes(contents);
+		log = new GCSTestHelper.RequestLog();
+		adapter = GCSTestHelper.builder(new StorageEmulator())
+				.addInterceptor(log)
+				.addInterceptor(new RequestInterceptor()
+				{
+					@Override
+					public void intercept(HttpRequest request, RequestTiming timing) throws IOException
+					{
+						String range = request.getHeaders().getRange();
+						if (range == null || !failFirstRange) return;
+						// the first range fails while the next ones are still downloading
+						boolean first = range.startsWith("bytes=0-");
+						sleep(first ? 50 : 300);
+						if (first) throw new IOException("Connection reset");
+					}
+
+					@Override
+					public void interceptResponse(HttpRequest request, HttpResponse response, RequestTiming timing)
+					{
+						if (response.getStatusCode() == 206) servedRanges.incrementAndGet();
+					}
+				})
+				.setRangedDownload(300, 3)
+				.build();
+		adapter.upload("big.bin", new ByteArrayInputStream(contents), new Config());
+		generation = adapter.getObject("big.bin", false).getGeneration();
+	}
+
+	@Test
+	public void downloadsRangesAtTheirOffsets() throws IOException
+	{
+		Path target = folder.newFile().toPath();
+		assertEquals(contents.length, adapter.download("big.bin", target));
+		assertTrue(Arrays.equals(contents, Files.readAllBytes(target)));
+		assertEquals(4, log.count("alt=media", "generation=" + generation));
+	}
+
+	@Test
+	public void failedRangeWaitsForTheOthers() throws IOException
+	{
+		failFirstRange = true;
+		Path target = folder.newFile().toPath();
+		try {
+			adapter.download("big.bin", target, true);
+			fail();
+		} catch (FlysystemGenericException expected) {
+		}
+		// the two ranges in flight when the first one failed are finished, the last one is never started
+		assertEquals(2, servedRanges.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rangesAreAtMostTwoGiB()
+	{
+		new GCSAdapter.Builder().setRangedDownload(Integer.MAX_VALUE + 1L, 1);
+	}
+
+	private static void sleep(long millis)
+	{
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void downloadsIntoMemoryMappedRanges() throws IOException
+	{
+		Path target = folder.newFile().toPath();
+		adapter.download("big.bin", target, true);
+		assertTrue(Arrays.equals(contents, Files.readAllBytes(target)));
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.Latency;
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.exception.PreconditionFailedException;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.interceptor.RequestTiming;
+import com.flysystem.core.Config;
+import com.flysystem.core.FileMetadata;
+import com.flysystem.core.exception.FileExistsException;
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.api.client.http.HttpRequest;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Runs the adapter end to end against the in-process emulator.
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterEmulatorTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	StorageEmulator emulator;
+	GCSAdapter adapter;
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		adapter = new GCSAdapter.Builder()
+				.setBucket("test")
+				.setEmulator(emulator)
+				.setUploadChunkSize(256 * 1024)
+				.setCompositeUpload(512 * 1024, 128 * 1024, 4)
+				.setRangedDownload(64 * 1024, 4)
+				.setRetryPolicy(new RetryPolicy(20, 1, 2, 1.0, 0))
+				.build();
+	}
+
+	private static byte[] random(int size)
+	{
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void contentTypes() throws IOException
+	{
+		adapter.write("notes", "just text");
+		adapter.write("data", "{\"a\": 1}");
+		adapter.write("table.csv", "a,b");
+		Config config = new Config();
+		config.set("mimetype", "text/x-custom");
+		adapter.write("custom.csv", "a,b", config);
+		byte[] png = new byte[1024 * 1024];
+		System.arraycopy("\u0089PNG\r\n\u001a\n".getBytes(StandardCharsets.ISO_8859_1), 0, png, 0, 8);
+		adapter.upload("image", new ByteArrayInputStream(png), new Config());
+		Path pdf = folder.newFile("document").toPath();
+		Files.write(pdf, "%PDF-1.7".getBytes(StandardCharsets.US_ASCII));
+		adapter.upload("document", pdf, new Config());
+		adapter.upload("random", new ByteArrayInputStream(random(1000)), new Config());
+
+		assertEquals("text/plain", adapter.getMimetype("notes"));
+		assertEquals("application/json", adapter.getMimetype("data"));
+		assertEquals("text/csv", adapter.getMimetype("table.csv"));
+		assertEquals("text/x-custom", adapter.getMimetype("custom.csv"));
+		assertEquals("image/png", adapter.getMimetype("image"));
+		assertEquals("application/pdf", adapter.getMimetype("document"));
+		assertEquals("application/octet-stream", adapter.getMimetype("random"));
+		// the sniffed bytes are still uploaded
+		assertTrue(Arrays.equals(png, IOUtils.toByteArray(adapter.readInputStream("image"))));
+	}
+
+	@Test
+	public void writeReadAndDelete()
+	{
+		assertTrue(adapter.write("dir/file", "contents"));
+		assertTrue(adapter.has("dir/file"));
+		assertEquals("contents", adapter.read("dir/file"));
+		assertEquals("dir/file", adapter.getMetadata("dir/file").getPath());
+		assertTrue(adapter.delete("dir/file"));
+		assertFalse(adapter.has("dir/file"));
+	}
+
+	@Test
+	public void listingFollowsPages()
+	{
+		for (int i = 0; i < 1100; i++) adapter.write("dir/" + i, "");
+		adapter.write("dir/sub/file", "");
+		assertEquals(1101, adapter.listContents("dir", true).size());
+		List<FileMetadata> children = adapter.listContents("dir", false);
+		assertEquals(1101, children.size());
+	}
+
+	@Test
+	public void resumableAndCompositeUploadsAndRangedDownload() throws IOException
+	{
+		byte[] contents = random(600 * 1024);
+		assertTrue(adapter.upload("stream", new ByteArrayInputStream(contents), new Config()));
+		Path file = folder.newFile().toPath();
+		Files.write(file, contents);
+		assertTrue(adapter.upload("composite", file, new Config()));
+		assertEquals(2, emulator.size());
+
+		Path target = folder.newFile().toPath();
+		assertEquals(contents.length, adapter.download("composite", target));
+		assertTrue(Arrays.equals(contents, Files.readAllBytes(target)));
+		assertEquals(contents.length, adapter.download("stream", target));
+		assertTrue(Arrays.equals(contents, Files.readAllBytes(target)));
+	}
+
+	@Test
+	public void failedCompositeUploadLeavesNoParts() throws IOException, InterruptedException
+	{
+		GCSAdapter failing = new GCSAdapter.Builder()
+				.setBucket("test")
+				.setEmulator(emulator)
+				.setCompositeUpload(512 * 1024, 128 * 1024, 4)
+				.addInterceptor(new RequestInterceptor()
+				{
+					@Override
+					public void intercept(HttpRequest request, RequestTiming timing) throws IOException
+					{
+						String name = (String) request.getUrl().getFirst("name");
+						if (name == null || !name.startsWith(CompositeUpload.TEMPORARY_PREFIX)) return;
+						// the first part fails while the next ones are still uploading
+						boolean first = name.endsWith("/0");
+						try {
+							Thread.sleep(first ? 50 : 300);
+						} catch (InterruptedException e) {
+							throw new IOException(e);
+						}
+						if (first) throw new IOException("Connection reset");
+					}
+				})
+				.build();
+		Path file = folder.newFile().toPath();
+		Files.write(file, random(5 * 128 * 1024));
+		try {
+			failing.upload("composite", file, new Config());
+			fail();
+		} catch (FlysystemGenericException expected) {
+		}
+		// parts that were still uploading when the upload gave up would have been created by now
+		Thread.sleep(500);
+		assertEquals(0, emulator.size());
+	}
+
+	@Test
+	public void copyRenameAndDeleteDir()
+	{
+		adapter.write("a", "a");
+		adapter.write("dir/b", "b");
+		assertTrue(adapter.copy("a", "dir/c"));
+		assertTrue(adapter.rename("a", "dir/a"));
+		try {
+			adapter.rename("dir/a", "dir/b");
+			fail();
+		} catch (FileExistsException e) {
+			assertEquals("b", adapter.read("dir/b"));
+		}
+		assertTrue(adapter.deleteDir("dir"));
+		assertEquals(0, emulator.size());
+	}
+
+	@Test
+	public void preconditionsAndConditionalReads()
+	{
+		Config create = new Config();
+		create.set("ifGenerationMatch", 0L);
+		adapter.write("file", "first", create);
+		try {
+			adapter.write("file", "second", create);
+			fail();
+		} catch (PreconditionFailedException e) {
+			assertEquals("first", adapter.read("file"));
+		}
+		ConditionalRead read = adapter.readIfChanged("file", 0);
+		assertEquals("first", read.getContents());
+		assertFalse(adapter.readIfChanged("file", read.getGeneration()).isModified());
+		assertFalse(adapter.readIfChanged("file", read.getEtag()).isModified());
+	}
+
+	@Test
+	public void gzipEncodedObjectsAreReadDecompressed()
+	{
+		Config config = new Config();
+		config.set("gzip", true);
+		adapter.write("file", "compressible compressible compressible", config);
+		assertEquals("compressible compressible compressible", adapter.read("file"));
+	}
+
+	@Test
+	public void injectedFaultsAreRetried()
+	{
+		emulator.setFaults(0.2, 0.2);
+		Config create = new Config();
+		create.set("ifGenerationMatch", 0L);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(adapter.write("file" + i, "contents", create));
+			assertEquals("contents", adapter.read("file" + i));
+		}
+		assertTrue(emulator.getFaults() > 0);
+	}
+
+	@Test
+	public void latencyIsApplied()
+	{
+		adapter.write("file", "contents");
+		emulator.setLatency(StorageEmulator.Operation.GET, Latency.fixed(50, TimeUnit.MILLISECONDS));
+		long start = System.nanoTime();
+		adapter.has("file");
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.interceptor.RequestTiming;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterExistenceTest
+{
+	StorageEmulator emulator;
+	GCSTestHelper.RequestLog log;
+	volatile Runnable onMiss;
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		log = new GCSTestHelper.RequestLog();
+		builder().build().write("dir/a", "contents");
+	}
+
+	private GCSAdapter.Builder builder()
+	{
+		return GCSTestHelper.builder(emulator)
+				.addInterceptor(log)
+				.addInterceptor(new RequestInterceptor()
+				{
+					@Override
+					public void interceptResponse(HttpRequest request, HttpResponse response, RequestTiming timing)
+					{
+						if (response.getStatusCode() != 404) return;
+						Runnable miss = onMiss;
+						onMiss = null;
+						if (miss != null) miss.run();
+					}
+				});
+	}
+
+	private int gets()
+	{
+		return log.count("GET ", "/b/test/o/");
+	}
+
+	@Test
+	public void missingPathsAreCachedUntilWritten()
+	{
+		GCSAdapter adapter = builder().setNegativeCache(100, 1, TimeUnit.MINUTES).build();
+
+		assertFalse(adapter.has("dir/b"));
+		assertFalse(adapter.has("dir/b"));
+		assertEquals(1, gets());
+
+		adapter.write("dir/b", "contents");
+		assertTrue(adapter.has("dir/b"));
+		assertEquals(2, gets());
+	}
+
+	@Test
+	public void writeDuringLookupIsNotCachedAsMissing()
+	{
+		final GCSAdapter adapter = builder().setNegativeCache(100, 1, TimeUnit.MINUTES).build();
+		// the write completes after the emulator answered the lookup, but before the adapter handled that answer
+		onMiss = new Runnable()
+		{
+			public void run()
+			{
+				adapter.write("dir/b", "contents");
+			}
+		};
+
+		assertFalse(adapter.has("dir/b"));
+		assertTrue(adapter.has("dir/b"));
+		assertEquals(2, gets());
+	}
+
+	@Test
+	public void indexAnswersMissesLocally() throws InterruptedException
+	{
+		GCSAdapter adapter = builder().setExistenceIndex("dir", 1000, 0.001).build();
+		while (!indexReady(adapter)) Thread.sleep(10);
+
+		assertFalse(adapter.has("dir/missing"));
+		assertEquals(0, gets());
+		assertTrue(adapter.has("dir/a"));
+		assertEquals(1, gets());
+		// paths outside the index are asked
+		assertFalse(adapter.has("elsewhere"));
+		assertEquals(2, gets());
+
+		adapter.write("dir/b", "contents");
+		assertTrue(adapter.has("dir/b"));
+	}
+
+	private static boolean indexReady(GCSAdapter adapter)
+	{
+		return adapter.getExistenceCache().isIndexReady();
+	}
+}
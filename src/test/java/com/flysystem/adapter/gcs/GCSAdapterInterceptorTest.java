@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.Latency;
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.interceptor.CorrelationIdInterceptor;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.interceptor.RequestTimeouts;
+import com.flysystem.adapter.gcs.interceptor.RequestTiming;
+import com.flysystem.adapter.gcs.interceptor.RequestType;
+import com.flysystem.adapter.gcs.interceptor.SlowRequestSampler;
+import com.flysystem.adapter.gcs.metrics.MetricsRecorder;
+import com.flysystem.core.Config;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterInterceptorTest
+{
+	StorageEmulator emulator;
+	Recorder recorder;
+
+	static class Recorder extends RequestInterceptor
+	{
+		final List<RequestType> types = Collections.synchronizedList(new ArrayList<RequestType>());
+		final List<Object> correlationIds = Collections.synchronizedList(new ArrayList<>());
+		final List<Integer> readTimeouts = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Integer> statusCodes = Collections.synchronizedList(new ArrayList<Integer>());
+		int maxAttempts;
+		long maxElapsedNanos;
+
+		@Override
+		public void intercept(HttpRequest request, RequestTiming timing)
+		{
+			types.add(RequestType.of(request));
+			correlationIds.add(request.getHeaders().get(CorrelationIdInterceptor.DEFAULT_HEADER));
+			readTimeouts.add(request.getReadTimeout());
+		}
+
+		@Override
+		public synchronized void interceptResponse(HttpRequest request, HttpResponse response, RequestTiming timing)
+		{
+			statusCodes.add(response.getStatusCode());
+			maxAttempts = Math.max(maxAttempts, timing.getAttempts());
+			maxElapsedNanos = Math.max(maxElapsedNanos, timing.getElapsedNanos());
+			assertTrue(timing.getTimeToResponseNanos() > 0);
+			assertEquals(timing.getElapsedNanos(), timing.getRetryNanos() + timing.getTimeToResponseNanos());
+		}
+	}
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		recorder = new Recorder();
+	}
+
+	private GCSAdapter.Builder builder()
+	{
+		return new GCSAdapter.Builder()
+				.setBucket("test")
+				.setEmulator(emulator)
+				.setUploadChunkSize(256 * 1024)
+				.setRetryPolicy(new RetryPolicy(20, 1, 2, 1.0, 0))
+				.setMetrics(MetricsRecorder.NOOP);
+	}
+
+	@Test
+	public void requestTypes()
+	{
+		GCSAdapter adapter = builder().addInterceptor(recorder).build();
+		adapter.write("file", "contents");
+		adapter.upload("stream", new ByteArrayInputStream(new byte[512 * 1024]), new Config());
+		adapter.read("file");
+		adapter.getMetadata("file");
+		adapter.listContents("", true);
+		adapter.copy("file", "copy");
+		adapter.delete("copy");
+		adapter.hasAll(Arrays.asList("file", "stream"));
+
+		Set<RequestType> types = new HashSet<>(recorder.types);
+		assertEquals(EnumSet.of(RequestType.UPLOAD, RequestType.DOWNLOAD, RequestType.METADATA, RequestType.LIST,
+				RequestType.REWRITE, RequestType.DELETE, RequestType.BATCH), types);
+		// the requests inside the batch are intercepted too, but only the batch itself has a response
+		assertEquals(emulator.getRequests(), recorder.statusCodes.size());
+		assertEquals(emulator.getRequests() + 2, recorder.types.size());
+	}
+
+	@Test
+	public void timeoutsPerRequestType()
+	{
+		GCSAdapter adapter = builder()
+				.setTimeouts(1000, 2000)
+				.addInterceptor(new RequestTimeouts().set(RequestType.METADATA, 100, 200))
+				.addInterceptor(recorder)
+				.build();
+		adapter.write("file", "contents");
+		adapter.getMetadata("file");
+
+		assertEquals(Arrays.asList(RequestType.UPLOAD, RequestType.METADATA), recorder.types);
+		assertEquals(Arrays.asList(2000, 200), recorder.readTimeouts);
+	}
+
+	@Test
+	public void correlationIdIsKeptAcrossRetries()
+	{
+		GCSAdapter adapter = builder()
+				.addInterceptor(new CorrelationIdInterceptor())
+				.addInterceptor(recorder)
+				.build();
+		adapter.write("file", "contents");
+		emulator.setFaults(0.5, 0);
+		for (int i = 0; i < 10; i++) adapter.has("file");
+
+		assertTrue(emulator.getFaults() > 0);
+		assertTrue(recorder.maxAttempts > 1);
+		// every attempt carries an id, and retries share the id of their first attempt
+		assertEquals(emulator.getRequests(), recorder.correlationIds.size());
+		assertEquals(11, new HashSet<>(recorder.correlationIds).size());
+		assertTrue(recorder.statusCodes.contains(429));
+	}
+
+	@Test
+	public void slowRequestsAreSampled() throws IOException
+	{
+		final List<RequestTiming> reported = new ArrayList<>();
+		emulator.setLatency(Latency.fixed(20, TimeUnit.MILLISECONDS));
+		GCSAdapter adapter = builder()
+				.addInterceptor(new SlowRequestSampler(10, TimeUnit.MILLISECONDS, 2)
+				{
+					@Override
+					protected void report(HttpRequest request, HttpResponse response, RequestTiming timing)
+					{
+						super.report(request, response, timing);
+						reported.add(timing);
+					}
+				})
+				.addInterceptor(recorder)
+				.build();
+		for (int i = 0; i < 4; i++) adapter.write("file" + i, "contents");
+
+		assertEquals(2, reported.size());
+		assertTrue(recorder.maxElapsedNanos >= TimeUnit.MILLISECONDS.toNanos(20));
+	}
+}
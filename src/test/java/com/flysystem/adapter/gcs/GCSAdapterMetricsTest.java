@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.metrics.CacheKind;
+import com.flysystem.adapter.gcs.metrics.JmxMetrics;
+import com.flysystem.adapter.gcs.metrics.MetricsRecorder;
+import com.flysystem.adapter.gcs.metrics.Operation;
+import com.flysystem.core.exception.FileNotFoundException;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterMetricsTest
+{
+	StorageEmulator emulator;
+	JmxMetrics metrics;
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		metrics = new JmxMetrics();
+	}
+
+	private GCSAdapter.Builder builder()
+	{
+		return new GCSAdapter.Builder()
+				.setBucket("test")
+				.setEmulator(emulator)
+				.setRetryPolicy(new RetryPolicy(20, 1, 2, 1.0, 0))
+				.setMetrics(metrics);
+	}
+
+	@Test
+	public void operationsAreTimedAndRequestsCounted()
+	{
+		GCSAdapter adapter = builder().build();
+		adapter.write("file", "contents");
+		assertEquals("contents", adapter.read("file"));
+		try {
+			adapter.read("missing");
+			fail();
+		} catch (FileNotFoundException ignored) {
+		}
+
+		assertEquals(1, metrics.getLatency(Operation.WRITE).getCount());
+		assertEquals(2, metrics.getLatency(Operation.READ).getCount());
+		assertEquals(1, metrics.getFailures(Operation.READ));
+		// read does not count as a separate stream read
+		assertEquals(0, metrics.getLatency(Operation.READ_STREAM).getCount());
+		assertEquals(0, metrics.getInFlight(Operation.READ));
+		assertTrue(metrics.getLatency(Operation.WRITE).getMax() > 0);
+
+		assertEquals(emulator.getRequests(), metrics.getRequests());
+		assertEquals(2, metrics.getResponses(200));
+		assertEquals(1, metrics.getResponses(404));
+		assertTrue(metrics.getBytesOut() >= "contents".length());
+		// the media of the read and the error of the missing one
+		assertTrue(metrics.getBytesIn() > "contents".length());
+		assertEquals(2 * "contents".length(), adapter.getChecksums().getBytes());
+	}
+
+	@Test
+	public void singleFieldGettersAreRecordedAsMetadata()
+	{
+		GCSAdapter adapter = builder().build();
+		adapter.write("file", "contents");
+		assertEquals(Long.valueOf("contents".length()), adapter.getSize("file"));
+		adapter.getMimetype("file");
+		adapter.getTimestamp("file");
+		adapter.getVisibility("file");
+		try {
+			adapter.getSize("missing");
+			fail();
+		} catch (FileNotFoundException ignored) {
+		}
+
+		assertEquals(5, metrics.getLatency(Operation.METADATA).getCount());
+		assertEquals(1, metrics.getFailures(Operation.METADATA));
+		assertEquals(0, metrics.getInFlight(Operation.METADATA));
+	}
+
+	@Test
+	public void retriesAreCounted()
+	{
+		GCSAdapter adapter = builder().build();
+		adapter.write("file", "contents");
+		emulator.setFaults(0.5, 0);
+		for (int i = 0; i < 20; i++) assertTrue(adapter.has("file"));
+
+		assertTrue(emulator.getFaults() > 0);
+		assertEquals(emulator.getFaults(), metrics.getRetries());
+		assertEquals(emulator.getFaults(), metrics.getResponses(429));
+		assertEquals(0, metrics.getFailures(Operation.HAS));
+	}
+
+	@Test
+	public void negativeCacheHitsAndMisses()
+	{
+		GCSAdapter adapter = builder().setNegativeCache(100, 1, TimeUnit.MINUTES).build();
+		assertFalse(adapter.has("missing"));
+		assertFalse(adapter.has("missing"));
+
+		assertEquals(1, metrics.getCacheMisses(CacheKind.EXISTENCE));
+		assertEquals(1, metrics.getCacheHits(CacheKind.EXISTENCE));
+		assertEquals(2, metrics.getLatency(Operation.HAS).getCount());
+	}
+
+	@Test
+	public void exposedAsMXBeans() throws Exception
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		metrics.register(server, "metrics-test");
+		try {
+			GCSAdapter adapter = builder().build();
+			adapter.write("file", "contents");
+			ObjectName pattern = new ObjectName(JmxMetrics.DOMAIN + ":type=GCSAdapter,name=\"metrics-test\",*");
+			assertEquals(Operation.values().length + 1, server.queryNames(pattern, null).size());
+
+			ObjectName write = server.queryNames(new ObjectName(JmxMetrics.DOMAIN + ":type=GCSAdapter,name=\"metrics-test\",operation=write,*"), null).iterator().next();
+			assertEquals(1L, server.getAttribute(write, "Count"));
+			ObjectName adapterName = server.queryNames(pattern, null).iterator().next();
+			for (ObjectName name : server.queryNames(pattern, null)) {
+				if (name.getKeyProperty("operation") == null) adapterName = name;
+			}
+			assertEquals(metrics.getRequests(), server.getAttribute(adapterName, "Requests"));
+			TabularData responses = (TabularData) server.getAttribute(adapterName, "ResponsesByStatus");
+			assertEquals(1L, responses.get(new Object[]{200}).get("value"));
+		} finally {
+			metrics.unregister();
+		}
+		assertTrue(server.queryNames(new ObjectName(JmxMetrics.DOMAIN + ":type=GCSAdapter,name=\"metrics-test\",*"), null).isEmpty());
+	}
+
+	@Test
+	public void mxBeansAreOptInAndUnregisteredOnClose() throws Exception
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName pattern = new ObjectName(JmxMetrics.DOMAIN + ":type=GCSAdapter,name=\"jmx-test\",*");
+		GCSAdapter adapter = new GCSAdapter.Builder().setBucket("jmx-test").setEmulator(emulator).build();
+		assertSame(MetricsRecorder.NOOP, adapter.getMetrics());
+		assertTrue(server.queryNames(pattern, null).isEmpty());
+
+		adapter = new GCSAdapter.Builder().setBucket("jmx-test").setEmulator(emulator).setJmxMetrics(true).build();
+		adapter.write("file", "contents");
+		assertEquals(Operation.values().length + 1, server.queryNames(pattern, null).size());
+		assertEquals(1, ((JmxMetrics) adapter.getMetrics()).getLatency(Operation.WRITE).getCount());
+		adapter.close();
+		assertTrue(server.queryNames(pattern, null).isEmpty());
+	}
+}
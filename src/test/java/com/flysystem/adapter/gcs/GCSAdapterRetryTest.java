@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.core.Config;
+import com.flysystem.core.exception.FlysystemGenericException;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterRetryTest
+{
+	StorageEmulator emulator;
+	GCSAdapter adapter;
+	long requests;
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		adapter = GCSTestHelper.builder(emulator)
+				.setRetryPolicy(new RetryPolicy(3, 1, 5, 2.0, 0.5))
+				.build();
+		adapter.write("file", "data");
+		requests = emulator.getRequests();
+	}
+
+	private long requests()
+	{
+		return emulator.getRequests() - requests;
+	}
+
+	@Test
+	public void readsAreRetried()
+	{
+		emulator.failNext(2, 503);
+		assertEquals(Long.valueOf(4), adapter.getSize("file"));
+		assertEquals(3, requests());
+	}
+
+	@Test
+	public void retriesAreLimited()
+	{
+		emulator.failNext(3, 503);
+		try {
+			adapter.getSize("file");
+			fail();
+		} catch (FlysystemGenericException e) {
+			assertEquals(3, requests());
+		}
+	}
+
+	@Test
+	public void writesWithoutPreconditionAreNotRetried()
+	{
+		emulator.failNext(1, 503);
+		try {
+			adapter.write("other", "data");
+			fail();
+		} catch (FlysystemGenericException e) {
+			assertEquals(1, requests());
+		}
+	}
+
+	@Test
+	public void writesWithPreconditionAreRetried()
+	{
+		emulator.failNext(1, 503);
+		Config config = new Config();
+		config.set("ifGenerationMatch", 0L);
+		assertTrue(adapter.write("other", "data", config));
+		assertEquals(2, requests());
+	}
+
+	@Test
+	public void slowReadIsHedged() throws IOException
+	{
+		HedgedRequests hedged = new HedgedRequests(MoreExecutors.listeningDecorator(Executors.newCachedThreadPool()));
+		final AtomicInteger calls = new AtomicInteger();
+		Callable<String> fast = new Callable<String>()
+		{
+			public String call()
+			{
+				calls.incrementAndGet();
+				return "fast";
+			}
+		};
+		for (int i = 0; i < HedgedRequests.MIN_SAMPLES; i++) hedged.call(fast);
+
+		final AtomicInteger attempts = new AtomicInteger();
+		long start = System.nanoTime();
+		String result = hedged.call(new Callable<String>()
+		{
+			public String call() throws Exception
+			{
+				if (attempts.incrementAndGet() == 1) Thread.sleep(5000);
+				return "hedge";
+			}
+		});
+
+		assertEquals("hedge", result);
+		assertEquals(1, hedged.hedges());
+		assertTrue(System.nanoTime() - start < 2000L * 1000 * 1000);
+	}
+
+	@Test(timeout = 10000)
+	public void hedgedLookupsDoNotNeedAThreadOfTheAdapter() throws Exception
+	{
+		ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			final GCSAdapter hedging = GCSTestHelper.builder(emulator).setExecutorService(single).setHedgedReads(true).build();
+			// the only thread of the adapter waits for the lookup, as a task of renamePrefix would
+			assertTrue(single.submit(new Callable<Boolean>()
+			{
+				public Boolean call()
+				{
+					return hedging.has("file");
+				}
+			}).get());
+			hedging.close();
+		} finally {
+			single.shutdown();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.core.exception.FileExistsException;
+import com.google.common.base.Strings;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Runs copies and renames against the emulator, which needs two calls to rewrite the larger object.
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterRewriteTest
+{
+	GCSTestHelper.RequestLog log;
+	GCSAdapter adapter;
+
+	@Before
+	public void setUp()
+	{
+		log = new GCSTestHelper.RequestLog();
+		adapter = GCSTestHelper.builder(new StorageEmulator())
+				.addInterceptor(log)
+				.setRewrite(1024 * 1024, 4)
+				.build();
+		adapter.write("dir/a", "a");
+		adapter.write("dir/sub/", "");
+		adapter.write("dir/sub/b", "b");
+		adapter.write("other", Strings.repeat("o", 1536 * 1024));
+	}
+
+	@Test
+	public void copyLoopsUntilTheRewriteIsDone()
+	{
+		assertTrue(adapter.copy("other", "copy"));
+		assertEquals(2, log.count("/rewriteTo/", "maxBytesRewrittenPerCall=1048576"));
+		assertTrue(adapter.has("other"));
+		assertEquals(adapter.read("other"), adapter.read("copy"));
+	}
+
+	@Test
+	public void renameDeletesTheCopiedGeneration()
+	{
+		assertTrue(adapter.rename("other", "renamed"));
+		assertEquals(1, log.count("DELETE ", "ifGenerationMatch="));
+		assertFalse(adapter.has("other"));
+		assertTrue(adapter.has("renamed"));
+	}
+
+	@Test
+	public void renameDoesNotOverwrite()
+	{
+		try {
+			adapter.rename("other", "dir/a");
+			fail();
+		} catch (FileExistsException e) {
+			assertTrue(adapter.has("other"));
+			assertEquals("a", adapter.read("dir/a"));
+		}
+	}
+
+	@Test
+	public void renamePrefixMovesEveryObject()
+	{
+		BatchResult<Boolean> result = adapter.renamePrefix("dir", "moved/");
+		assertTrue(result.isSuccessful());
+		assertEquals(3, result.getResults().size());
+		for (String path : new String[] {"dir/a", "dir/sub/", "dir/sub/b"}) assertFalse(adapter.has(path));
+		for (String path : new String[] {"moved/a", "moved/sub/", "moved/sub/b", "other"}) assertTrue(adapter.has(path));
+	}
+}
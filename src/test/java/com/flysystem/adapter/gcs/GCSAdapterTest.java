@@ -22,25 +22,45 @@
 
 package com.flysystem.adapter.gcs;
 
+import com.flysystem.core.FileMetadata;
+import com.flysystem.core.Visibility;
 import com.google.api.client.googleapis.media.MediaHttpDownloader;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.DateTime;
 import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.model.ObjectAccessControl;
+import com.google.api.services.storage.model.Objects;
+import com.google.api.services.storage.model.StorageObject;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Matchers;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -50,7 +70,8 @@ import static org.powermock.api.mockito.PowerMockito.mockStatic;
  * @author Zeger Hoogeboom
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({MediaHttpDownloader.class, Storage.Objects.Get.class, Storage.class, HttpRequestFactory.class, JacksonFactory.class, IOUtils.class})
+@PowerMockIgnore("javax.management.*")
+@PrepareForTest({MediaHttpDownloader.class, Storage.Objects.Get.class, Storage.Objects.List.class, Storage.class, HttpRequestFactory.class, JacksonFactory.class, IOUtils.class})
 public class GCSAdapterTest
 {
 	GCSAdapter adapter;
@@ -72,7 +93,7 @@ public class GCSAdapterTest
 		setupMockedClient();
 		adapter = new GCSAdapter.Builder()
 				.setClient(mockedClient)
-				.setBucket("ornate-shine-613")
+				.setBucket(bucketName)
 				.build();
 	}
 
@@ -107,5 +128,81 @@ public class GCSAdapterTest
 		assertEquals("contents", read);
 	}
 
+	@Test
+	public void transferToStreamsBinaryContents() throws IOException
+	{
+		byte[] contents = new byte[3 * GCSAdapter.BUFFER_SIZE + 1];
+		new Random(42).nextBytes(contents);
+		Storage.Objects.Get getMock = mock(Storage.Objects.Get.class);
+		MediaHttpDownloader httpMock = mock(MediaHttpDownloader.class);
+		when(getMock.getMediaHttpDownloader()).thenReturn(httpMock);
+		when(getMock.executeMediaAsInputStream()).thenReturn(new ByteArrayInputStream(contents));
+		when(objectsMock.get(anyString(), anyString())).thenReturn(getMock);
+		when(IOUtils.copyLarge(Matchers.<InputStream>any(), Matchers.<OutputStream>any(), Matchers.<byte[]>any())).thenCallRealMethod();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(contents.length, adapter.transferTo(path, out));
+		assertTrue(Arrays.equals(contents, out.toByteArray()));
+	}
+
+	@Test
+	public void listContentsFollowsPageTokens() throws IOException
+	{
+		Storage.Objects.List listMock = mock(Storage.Objects.List.class);
+		when(objectsMock.list(anyString())).thenReturn(listMock);
+		when(listMock.execute()).thenReturn(
+				new Objects().setItems(Arrays.asList(storageObject("dir/a.txt"))).setNextPageToken("next"),
+				new Objects().setItems(Arrays.asList(storageObject("dir/b.txt"))).setPrefixes(Arrays.asList("dir/sub/")));
+
+		List<FileMetadata> contents = adapter.listContents("dir", false);
+
+		verify(listMock, times(2)).setPrefix("dir/");
+		verify(listMock, times(2)).setDelimiter("/");
+		verify(listMock).setPageToken("next");
+		assertEquals(3, contents.size());
+		assertThat(contents, hasItems(new FileMetadata("dir/a.txt"), new FileMetadata("dir/b.txt"), new FileMetadata("dir/sub")));
+		for (FileMetadata metadata : contents) {
+			assertEquals(metadata.getPath().equals("dir/sub") ? "dir" : "file", metadata.getType());
+		}
+	}
+
+	@Test
+	public void listContentsRecursiveHasNoDelimiter() throws IOException
+	{
+		Storage.Objects.List listMock = mock(Storage.Objects.List.class);
+		when(objectsMock.list(anyString())).thenReturn(listMock);
+		when(listMock.execute()).thenReturn(new Objects());
+
+		assertTrue(adapter.listContents("", true).isEmpty());
+		verify(listMock, never()).setPrefix(anyString());
+		verify(listMock, never()).setDelimiter(anyString());
+	}
+
+	@Test
+	public void getMetadataIsASingleProjectedRequest() throws IOException
+	{
+		Storage.Objects.Get getMock = mock(Storage.Objects.Get.class);
+		when(objectsMock.get(anyString(), anyString())).thenReturn(getMock);
+		when(getMock.execute()).thenReturn(storageObject(path).setAcl(Arrays.asList(new ObjectAccessControl().setEntity("allUsers"))));
+
+		FileMetadata metadata = adapter.getMetadata(path);
+
+		verify(objectsMock, times(1)).get(bucketName, path);
+		verify(getMock).setFields(GCSAdapter.METADATA_FIELDS);
+		verify(getMock).setProjection("full");
+		assertEquals(Long.valueOf(1), metadata.getSize());
+		assertEquals("text/plain", metadata.getMimetype());
+		assertEquals(Long.valueOf(0), metadata.getTimestamp());
+		assertEquals(Visibility.PUBLIC, metadata.getVisibility());
+	}
+
+	private StorageObject storageObject(String name)
+	{
+		return new StorageObject().setName(name)
+				.setSize(BigInteger.ONE)
+				.setContentType("text/plain")
+				.setUpdated(new DateTime(0));
+	}
+
 
 }
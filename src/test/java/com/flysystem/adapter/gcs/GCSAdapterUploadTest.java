@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.interceptor.RequestTiming;
+import com.flysystem.core.Config;
+import com.google.api.client.http.HttpRequest;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Runs uploads against the emulator, which fails the second chunk of a resumable upload once.
+ * @author Zeger Hoogeboom
+ */
+public class GCSAdapterUploadTest
+{
+	StorageEmulator emulator;
+	GCSTestHelper.RequestLog log;
+	GCSAdapter adapter;
+	int chunks;
+	boolean failed;
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		log = new GCSTestHelper.RequestLog();
+		adapter = GCSTestHelper.builder(emulator)
+				.addInterceptor(log)
+				.addInterceptor(new RequestInterceptor()
+				{
+					@Override
+					public synchronized void intercept(HttpRequest request, RequestTiming timing)
+					{
+						String range = request.getHeaders().getContentRange();
+						// a chunk has a byte range, a request for the status of the upload only has a length
+						if (range == null || range.startsWith("bytes */")) return;
+						if (++chunks == 2 && !failed) {
+							failed = true;
+							emulator.failNext(1, 503);
+						}
+					}
+				})
+				.setUploadChunkSize(256 * 1024)
+				.build();
+	}
+
+	@Test
+	public void largeStreamResumesAfterAFailedChunk() throws IOException
+	{
+		byte[] contents = new byte[600 * 1024];
+		new Random(3).nextBytes(contents);
+
+		assertTrue(adapter.upload("file", new ByteArrayInputStream(contents), new Config()));
+
+		assertTrue(failed);
+		assertEquals(0, log.count("uploadType=multipart"));
+		try (InputStream stored = adapter.readInputStream("file")) {
+			assertTrue(Arrays.equals(contents, IOUtils.toByteArray(stored)));
+		}
+	}
+
+	@Test
+	public void smallWriteIsASingleRequest()
+	{
+		assertTrue(adapter.write("file", "contents"));
+		assertEquals(1, log.count("uploadType=multipart"));
+		assertEquals(0, chunks);
+	}
+}
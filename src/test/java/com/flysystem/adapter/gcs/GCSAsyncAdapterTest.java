@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.Latency;
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.interceptor.RequestTiming;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class GCSAsyncAdapterTest
+{
+	StorageEmulator emulator;
+	GCSAdapter adapter;
+	AtomicInteger running = new AtomicInteger();
+	AtomicInteger maxRunning = new AtomicInteger();
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator().setLatency(StorageEmulator.Operation.GET, Latency.fixed(20, TimeUnit.MILLISECONDS));
+		adapter = GCSTestHelper.builder(emulator)
+				.addInterceptor(new RequestInterceptor()
+				{
+					@Override
+					public void intercept(HttpRequest request, RequestTiming timing)
+					{
+						int now = running.incrementAndGet();
+						while (true) {
+							int max = maxRunning.get();
+							if (now <= max || maxRunning.compareAndSet(max, now)) break;
+						}
+					}
+
+					@Override
+					public void interceptResponse(HttpRequest request, HttpResponse response, RequestTiming timing)
+					{
+						running.decrementAndGet();
+					}
+				})
+				.build();
+		adapter.write("file", "contents");
+	}
+
+	@Test
+	public void inFlightOperationsAreCapped() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			GCSAsyncAdapter async = new GCSAsyncAdapter(adapter, executor, 3);
+			List<ListenableFuture<Boolean>> results = new ArrayList<>();
+			for (int i = 0; i < 20; i++) results.add(async.has("file"));
+
+			for (Boolean has : Futures.allAsList(results).get()) assertTrue(has);
+			assertTrue(maxRunning.get() <= 3);
+			assertEquals(0, async.queued());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void cancelledOperationKeepsItsPermitUntilItReturns() throws Exception
+	{
+		emulator.setLatency(StorageEmulator.Operation.GET, Latency.fixed(200, TimeUnit.MILLISECONDS));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			GCSAsyncAdapter async = new GCSAsyncAdapter(adapter, executor, 1);
+			ListenableFuture<Boolean> first = async.has("file");
+			while (running.get() == 0) Thread.sleep(1);
+			first.cancel(false);
+
+			assertFalse(async.has("missing").get());
+			assertEquals(1, maxRunning.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void operationsBeyondTheQueueAreRejected() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			GCSAsyncAdapter async = new GCSAsyncAdapter(adapter, executor, 1, 1);
+			ListenableFuture<Boolean> running = async.has("file");
+			ListenableFuture<Boolean> queued = async.has("file");
+			try {
+				async.has("file").get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			assertTrue(running.get());
+			assertTrue(queued.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void closeShutsDownTheExecutorItCreated() throws Exception
+	{
+		GCSAsyncAdapter async = new GCSAsyncAdapter(adapter);
+		assertTrue(async.has("file").get());
+		async.close();
+		assertTrue(async.has("file").isCancelled());
+	}
+}
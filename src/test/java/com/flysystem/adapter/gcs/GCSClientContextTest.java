@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class GCSClientContextTest
+{
+	GCSClientContext context;
+	MockHttpTransport transport;
+	volatile int expiresIn;
+	volatile boolean failNextToken;
+	AtomicInteger tokens = new AtomicInteger();
+	List<String> urls = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void setUp()
+	{
+		transport = GCSTestHelper.transport(new GCSTestHelper.Handler()
+		{
+			public LowLevelHttpResponse handle(String method, String url, MockLowLevelHttpRequest request)
+			{
+				if (failNextToken) {
+					failNextToken = false;
+					throw new IllegalStateException("Unexpected token response");
+				}
+				return GCSTestHelper.json("{\"access_token\":\"token" + tokens.incrementAndGet() + "\",\"expires_in\":" + expiresIn + "}");
+			}
+		}, new GCSTestHelper.Handler()
+		{
+			public LowLevelHttpResponse handle(String method, String url, MockLowLevelHttpRequest request)
+			{
+				urls.add(url);
+				return GCSTestHelper.json("{\"name\":\"file\",\"size\":\"4\"}");
+			}
+		});
+	}
+
+	private void build(int expiresIn, int refreshMargin)
+	{
+		this.expiresIn = expiresIn;
+		context = new GCSClientContext.Builder()
+				.setServiceAccountEmail(GCSTestHelper.serviceAccountEmail())
+				.setP12Key(GCSTestHelper.p12Key())
+				.setApplicationName("test")
+				.setHttpTransport(transport)
+				.setTokenRefreshMargin(refreshMargin, TimeUnit.SECONDS)
+				.build();
+	}
+
+	@After
+	public void tearDown()
+	{
+		context.close();
+	}
+
+	@Test
+	public void adaptersShareTheClientAndToken()
+	{
+		build(3600, 300);
+		assertEquals(1, tokens.get());
+		GCSAdapter first = new GCSAdapter.Builder().setBucket("first").setClientContext(context).build();
+		GCSAdapter second = new GCSAdapter.Builder().setBucket("second").setClientContext(context).build();
+
+		first.getSize("file");
+		second.getSize("file");
+
+		assertEquals(1, tokens.get());
+		assertTrue(urls.get(0).contains("/b/first/"));
+		assertTrue(urls.get(1).contains("/b/second/"));
+	}
+
+	@Test
+	public void tokenIsRefreshedBeforeItExpires() throws InterruptedException
+	{
+		// the credential refreshes inline during the last minute, so the margin is kept above that
+		build(62, 61);
+		Thread.sleep(1500);
+		assertEquals(2, tokens.get());
+	}
+
+	@Test
+	public void refreshIsRetriedAfterARuntimeException() throws InterruptedException
+	{
+		failNextToken = true;
+		build(3600, 300);
+		assertEquals(0, tokens.get());
+		Thread.sleep(GCSClientContext.RETRY_DELAY_MILLIS + 1000);
+		assertEquals(1, tokens.get());
+	}
+}
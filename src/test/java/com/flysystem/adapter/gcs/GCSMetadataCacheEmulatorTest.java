@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.interceptor.RequestTiming;
+import com.flysystem.adapter.gcs.metrics.MetricsRecorder;
+import com.flysystem.core.Config;
+import com.flysystem.core.Visibility;
+import com.flysystem.core.cache.CachedAdapter;
+import com.flysystem.core.exception.FileNotFoundException;
+import com.google.api.client.http.HttpRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Runs the metadata cache against the in-process emulator.
+ * @author Zeger Hoogeboom
+ */
+public class GCSMetadataCacheEmulatorTest
+{
+	StorageEmulator emulator;
+	GCSAdapter adapter;
+	GCSMetadataCache cache;
+	CachedAdapter cachedAdapter;
+	final AtomicInteger fullProjections = new AtomicInteger();
+
+	@Before
+	public void setUp()
+	{
+		emulator = new StorageEmulator();
+		adapter = new GCSAdapter.Builder()
+				.setBucket("test")
+				.setEmulator(emulator)
+				.setMetrics(MetricsRecorder.NOOP)
+				.addInterceptor(new RequestInterceptor()
+				{
+					@Override
+					public void intercept(HttpRequest request, RequestTiming timing)
+					{
+						if ("full".equals(request.getUrl().getFirst("projection"))) fullProjections.incrementAndGet();
+					}
+				})
+				.build();
+		cache = new GCSMetadataCache(adapter, 100, 1, TimeUnit.MINUTES);
+		cachedAdapter = new CachedAdapter(adapter, cache);
+	}
+
+	@Test
+	public void loadsWithoutAcl()
+	{
+		Config config = new Config();
+		config.set("visibility", Visibility.PUBLIC);
+		adapter.write("file", "contents", config);
+		long requests = emulator.getRequests();
+
+		assertTrue(cachedAdapter.has("file"));
+		assertEquals(Long.valueOf(8), cachedAdapter.getSize("file"));
+		assertEquals("text/plain", cachedAdapter.getMimetype("file"));
+		assertEquals(requests + 1, emulator.getRequests());
+		assertEquals(0, fullProjections.get());
+
+		// only the visibility needs the acl, and it is fetched once
+		assertEquals(Visibility.PUBLIC, cachedAdapter.getVisibility("file"));
+		assertEquals(Visibility.PUBLIC, cachedAdapter.getMetadata("file").getVisibility());
+		assertEquals(Long.valueOf(8), cachedAdapter.getSize("file"));
+		assertEquals(requests + 2, emulator.getRequests());
+		assertEquals(1, fullProjections.get());
+	}
+
+	@Test
+	public void missIsCached()
+	{
+		assertFalse(cachedAdapter.has("missing"));
+		try {
+			cachedAdapter.getSize("missing");
+			fail();
+		} catch (FileNotFoundException expected) {
+		}
+		try {
+			cachedAdapter.getVisibility("missing");
+			fail();
+		} catch (FileNotFoundException expected) {
+		}
+		assertEquals(1, emulator.getRequests());
+	}
+
+	@Test
+	public void writesAndDeletesInvalidate()
+	{
+		assertFalse(cachedAdapter.has("file"));
+		adapter.write("file", "contents");
+		assertEquals(Long.valueOf(8), cachedAdapter.getSize("file"));
+		adapter.write("file", "more contents");
+		assertEquals(Long.valueOf(13), cachedAdapter.getSize("file"));
+
+		adapter.delete("file");
+		long requests = emulator.getRequests();
+		assertFalse(cachedAdapter.has("file"));
+		assertFalse(cachedAdapter.has("file"));
+		assertEquals(requests + 1, emulator.getRequests());
+	}
+
+	@Test
+	public void deletesDoNotFillTheCache()
+	{
+		cache = new GCSMetadataCache(adapter, 10, 1, TimeUnit.MINUTES);
+		cachedAdapter = new CachedAdapter(adapter, cache);
+		adapter.write("hot", "contents");
+		cachedAdapter.getSize("hot");
+		for (int i = 0; i < 100; i++) adapter.write("dir/" + i, "contents");
+		adapter.deleteDir("dir");
+
+		long requests = emulator.getRequests();
+		assertEquals(Long.valueOf(8), cachedAdapter.getSize("hot"));
+		assertEquals(requests, emulator.getRequests());
+	}
+}
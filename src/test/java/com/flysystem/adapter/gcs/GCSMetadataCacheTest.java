@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.cache.CachedAdapter;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.model.StorageObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mock;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockIgnore("javax.management.*")
+@PrepareForTest({Storage.Objects.Get.class, Storage.class, HttpRequestFactory.class, JacksonFactory.class})
+public class GCSMetadataCacheTest
+{
+	GCSAdapter adapter;
+	GCSMetadataCache cache;
+	CachedAdapter cachedAdapter;
+	Storage.Objects objectsMock;
+	Storage.Objects.Get getMock;
+	String path = "file.txt";
+
+	@Before
+	public void setUp() throws Exception
+	{
+		Storage mockedClient = mock(Storage.class);
+		objectsMock = mock(Storage.Objects.class);
+		getMock = mock(Storage.Objects.Get.class);
+		when(mockedClient.objects()).thenReturn(objectsMock);
+		when(mockedClient.getJsonFactory()).thenReturn(mock(JacksonFactory.class));
+		HttpRequestFactory mockedRequestFactory = mock(HttpRequestFactory.class);
+		when(mockedRequestFactory.getTransport()).thenReturn(mock(HttpTransport.class));
+		when(mockedClient.getRequestFactory()).thenReturn(mockedRequestFactory);
+		when(objectsMock.get(anyString(), anyString())).thenReturn(getMock);
+		when(getMock.execute()).thenReturn(storageObject(1L, 1L));
+
+		adapter = new GCSAdapter.Builder().setClient(mockedClient).setBucket("test").build();
+		cache = new GCSMetadataCache(adapter, 100, 1, TimeUnit.MINUTES);
+		cachedAdapter = new CachedAdapter(adapter, cache);
+	}
+
+	@Test
+	public void repeatedLookupsHitTheCache() throws IOException
+	{
+		assertTrue(cachedAdapter.has(path));
+		assertEquals(Long.valueOf(4), cachedAdapter.getSize(path));
+		assertEquals("text/plain", cachedAdapter.getMimetype(path));
+		assertEquals(Long.valueOf(0), cachedAdapter.getTimestamp(path));
+
+		verify(getMock, times(1)).execute();
+		assertEquals(0.75, cache.hitRate());
+	}
+
+	@Test
+	public void olderGenerationIsEvicted() throws IOException
+	{
+		cachedAdapter.getSize(path);
+		cache.changed(path, storageObject(1L, 1L));
+		cachedAdapter.getSize(path);
+		verify(getMock, times(1)).execute();
+
+		cache.changed(path, storageObject(2L, 1L));
+		cachedAdapter.getSize(path);
+		verify(getMock, times(2)).execute();
+	}
+
+	@Test
+	public void removedObjectIsEvicted() throws IOException
+	{
+		cachedAdapter.getSize(path);
+		cache.removed(path);
+		assertEquals(0, cache.size());
+		assertTrue(cachedAdapter.has(path));
+		verify(getMock, times(2)).execute();
+	}
+
+	@Test
+	public void sizeIsBounded()
+	{
+		cache = new GCSMetadataCache(adapter, 10, 1, TimeUnit.MINUTES);
+		for (int i = 0; i < 1000; i++) {
+			cache.getSize("file" + i);
+		}
+		assertTrue(cache.size() <= 10);
+	}
+
+	private StorageObject storageObject(Long generation, Long metageneration)
+	{
+		return new StorageObject().setName(path)
+				.setSize(BigInteger.valueOf(4))
+				.setContentType("text/plain")
+				.setUpdated(new DateTime(0))
+				.setGeneration(generation)
+				.setMetageneration(metageneration);
+	}
+}
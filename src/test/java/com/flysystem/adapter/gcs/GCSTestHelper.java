@@ -22,18 +22,156 @@
 
 package com.flysystem.adapter.gcs;
 
+import com.flysystem.adapter.gcs.emulator.StorageEmulator;
+import com.flysystem.adapter.gcs.interceptor.RequestInterceptor;
+import com.flysystem.adapter.gcs.interceptor.RequestTiming;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
 import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
+ * Fixtures shared by the tests: adapters on the {@link StorageEmulator}, a log of the requests they send and, for the
+ * few tests that need to answer requests in ways the emulator does not, a mock transport with the test credentials.
+ *
  * @author Zeger Hoogeboom
  */
 public class GCSTestHelper
 {
+	/**
+	 * Answers the requests sent to a {@link #transport(Handler) mock transport}.
+	 */
+	interface Handler
+	{
+		LowLevelHttpResponse handle(String method, String url, MockLowLevelHttpRequest request) throws IOException;
+	}
+
+	/**
+	 * Hands out an access token valid for an hour.
+	 */
+	final static Handler TOKEN = new Handler()
+	{
+		public LowLevelHttpResponse handle(String method, String url, MockLowLevelHttpRequest request)
+		{
+			return json("{\"access_token\":\"token\",\"expires_in\":3600}");
+		}
+	};
+
+	/**
+	 * Logs the method and url of every attempt of a request, including retries and the requests inside batches.
+	 */
+	static class RequestLog extends RequestInterceptor
+	{
+		private final List<String> requests = new ArrayList<>();
+
+		@Override
+		public synchronized void intercept(HttpRequest request, RequestTiming timing)
+		{
+			requests.add(request.getRequestMethod() + " " + request.getUrl().build());
+		}
+
+		/**
+		 * @return the number of logged requests whose method and url contain all parts.
+		 */
+		synchronized int count(String... parts)
+		{
+			int count = 0;
+			for (String request : requests) {
+				boolean matches = true;
+				for (String part : parts) matches &= request.contains(part);
+				if (matches) count++;
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * @return a builder of an adapter of the bucket "test" on the emulator.
+	 */
+	static GCSAdapter.Builder builder(StorageEmulator emulator)
+	{
+		return new GCSAdapter.Builder().setBucket("test").setEmulator(emulator);
+	}
+
+	/**
+	 * @return a builder of an adapter of the bucket "test" which authenticates with the test key over the transport.
+	 */
+	static GCSAdapter.Builder builder(HttpTransport transport)
+	{
+		return new GCSAdapter.Builder()
+				.setBucket("test")
+				.setServiceAccountEmail(serviceAccountEmail())
+				.setP12Key(p12Key())
+				.setApplicationName("test")
+				.setHttpTransport(transport);
+	}
+
+	static String serviceAccountEmail()
+	{
+		return "test@developer.gserviceaccount.com";
+	}
+
+	static File p12Key()
+	{
+		return new File(System.getProperty("user.dir") + "/src/test/files/key.p12");
+	}
+
+	/**
+	 * @return a transport which hands out {@link #TOKEN tokens} and passes every other request to the handler.
+	 */
+	static MockHttpTransport transport(Handler handler)
+	{
+		return transport(TOKEN, handler);
+	}
+
+	/**
+	 * @return a transport which passes token requests to tokens and every other request to the handler.
+	 */
+	static MockHttpTransport transport(final Handler tokens, final Handler handler)
+	{
+		return new MockHttpTransport()
+		{
+			@Override
+			public LowLevelHttpRequest buildRequest(final String method, final String url)
+			{
+				return new MockLowLevelHttpRequest(url)
+				{
+					@Override
+					public LowLevelHttpResponse execute() throws IOException
+					{
+						return (url.contains("oauth2") ? tokens : handler).handle(method, url, this);
+					}
+				};
+			}
+		};
+	}
+
+	static MockLowLevelHttpResponse json(String json)
+	{
+		return new MockLowLevelHttpResponse().setContentType("application/json").setContent(json);
+	}
+
+	/**
+	 * @return the body of the request as it would have been sent.
+	 */
+	static String content(MockLowLevelHttpRequest request) throws IOException
+	{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		request.getStreamingContent().writeTo(content);
+		return content.toString("UTF-8");
+	}
 
 	private static Properties getProperties() throws Exception
 	{
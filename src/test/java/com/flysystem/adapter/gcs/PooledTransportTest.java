@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class PooledTransportTest
+{
+	@Test
+	public void evictorIsSharedAndLetsGoOfUnusedPools() throws Exception
+	{
+		PooledTransport settings = new PooledTransport();
+		settings.idleTimeoutMillis = 10;
+		int before = PooledTransport.EVICTOR.getQueue().size();
+		List<ApacheHttpTransport> transports = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			transports.add(settings.build());
+		}
+		assertTrue(PooledTransport.EVICTOR.getQueue().size() >= 10);
+		assertEquals(1, PooledTransport.EVICTOR.getPoolSize());
+
+		transports.clear();
+		for (int i = 0; i < 100 && PooledTransport.EVICTOR.getQueue().size() > before; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertTrue(PooledTransport.EVICTOR.getQueue().size() <= before);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.flysystem.adapter.gcs;
+
+import com.flysystem.core.FileMetadata;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.storage.model.Objects;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+
+import static junit.framework.TestCase.assertEquals;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class ShardedListerTest
+{
+	TreeSet<String> names;
+	ObjectLister lister;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		names = new TreeSet<>(Arrays.asList("a.txt", "a/", "a/1.txt", "a/b/2.txt", "a/c/3.txt", "b/4.txt", "b/d/5.txt", "c.txt", "z/6.txt"));
+		lister = new ObjectLister()
+		{
+			public Objects list(String prefix, boolean recursive, String pageToken)
+			{
+				List<StorageObject> items = new ArrayList<>();
+				TreeSet<String> prefixes = new TreeSet<>();
+				for (String name : names.tailSet(prefix)) {
+					if (!name.startsWith(prefix)) break;
+					int slash = name.indexOf('/', prefix.length());
+					if (!recursive && slash >= 0) {
+						prefixes.add(name.substring(0, slash + 1));
+					} else {
+						items.add(new StorageObject().setName(name).setSize(BigInteger.ONE).setUpdated(new DateTime(0)));
+					}
+				}
+				return new Objects().setItems(items).setPrefixes(new ArrayList<>(prefixes));
+			}
+		};
+	}
+
+	@Test
+	public void orderedMatchesSequentialListing() throws IOException
+	{
+		for (int parallelism : new int[]{1, 2, 8}) {
+			ShardedLister sharded = new ShardedLister(lister, MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(parallelism)), parallelism);
+			assertEquals(sequential(""), paths(sharded.list("", true)));
+			assertEquals(sequential("a/"), paths(sharded.list("a/", true)));
+		}
+	}
+
+	@Test
+	public void unorderedContainsEverything() throws IOException
+	{
+		ShardedLister sharded = new ShardedLister(lister, MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4)), 4);
+		List<String> paths = paths(sharded.list("", false));
+		assertEquals(sequential("").size(), paths.size());
+		assertEquals(new HashSet<>(sequential("")), new HashSet<>(paths));
+	}
+
+	private List<String> sequential(String prefix) throws IOException
+	{
+		List<String> paths = new ArrayList<>();
+		for (StorageObject item : lister.list(prefix, true, null).getItems()) {
+			if (!item.getName().equals(prefix)) paths.add(new StorageObjectConverter().convert(item).getPath());
+		}
+		return paths;
+	}
+
+	private static List<String> paths(List<FileMetadata> contents)
+	{
+		List<String> paths = new ArrayList<>();
+		for (FileMetadata metadata : contents) {
+			paths.add(metadata.getPath());
+		}
+		return paths;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013-2015 Frank de Jonge
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+
+package com.flysystem.adapter.gcs.metrics;
+
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * @author Zeger Hoogeboom
+ */
+public class LatencyHistogramTest
+{
+	@Test
+	public void percentilesAreWithinTheBucketPrecision()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 100000; value++) histogram.record(value * 1000);
+
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000000, histogram.getMax());
+		assertEquals(50000500.0, histogram.getMean(), 0.001);
+		assertWithin(50000000, histogram.getValueAtPercentile(50));
+		assertWithin(99000000, histogram.getValueAtPercentile(99));
+		assertEquals(100000000, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void emptyHistogram()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		assertEquals(0.0, histogram.getMean());
+	}
+
+	@Test
+	public void bucketsCoverEveryValue()
+	{
+		for (int shift = 0; shift < 63; shift++) {
+			for (long value : new long[]{(1L << shift) - 1, 1L << shift, (1L << shift) + 1}) {
+				int index = LatencyHistogram.index(value);
+				assertTrue(value <= LatencyHistogram.highestValue(index));
+				assertTrue(index == 0 || value > LatencyHistogram.highestValue(index - 1));
+			}
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+	}
+
+	private static void assertWithin(long expected, long actual)
+	{
+		assertTrue(expected + " but was " + actual, Math.abs(actual - expected) <= expected / 64);
+	}
+}